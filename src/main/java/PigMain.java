@@ -1,10 +1,30 @@
+import java.io.IOException;
+
+import pig.adapter.DebugServer;
 import pig.adapter.ProtocolServer;
+import pig.adapter.SpilledRelation;
 
 /**
  * @author Anatolii Bazko
  */
 public class PigMain {
-    public static void main(String... argvs) {
+    public static void main(String... argvs) throws IOException {
+        SpilledRelation.deleteStaleFiles();
+        if (argvs.length == 2 && "--port".equals(argvs[0])) {
+            DebugServer debugServer = new DebugServer(Integer.parseInt(argvs[1]));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    debugServer.close();
+                } catch (IOException e) {
+                    // the JVM is exiting anyway.
+                }
+            }));
+
+            System.out.println("Listening on port " + debugServer.getPort());
+            debugServer.run();
+            return;
+        }
+
         ProtocolServer debugServer = new ProtocolServer(System.in, System.out);
         Runtime.getRuntime().addShutdownHook(new Thread(debugServer::stop));
 
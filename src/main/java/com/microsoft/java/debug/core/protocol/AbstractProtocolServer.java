@@ -11,51 +11,60 @@
 
 package com.microsoft.java.debug.core.protocol;
 
-import io.reactivex.disposables.Disposable;
 import io.reactivex.schedulers.Schedulers;
 import io.reactivex.subjects.PublishSubject;
 
 import com.microsoft.java.debug.core.protocol.Events.DebugEvent;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.io.Reader;
 import java.io.Writer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.nio.file.Path;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public abstract class AbstractProtocolServer implements IProtocolServer {
     private static final Logger logger = Logger.getLogger("java-debug");
     private static final int BUFFER_SIZE = 4096;
+    private static final int MAX_BATCH_SIZE = 64 * 1024;
+    private static final int MAX_RETAINED_SIZE = 4 * MAX_BATCH_SIZE;
+    private static final long CLOSE_TIMEOUT = 5000;
     private static final String TWO_CRLF = "\r\n\r\n";
-    private static final Pattern CONTENT_LENGTH_MATCHER = Pattern.compile("Content-Length: (\\d+)");
+    private static final byte[] CRLF = { '\r', '\n' };
+    private static final byte[] TWO_CRLF_BYTES = { '\r', '\n', '\r', '\n' };
+    private static final byte[] CONTENT_LENGTH = "Content-Length:".getBytes(StandardCharsets.US_ASCII);
     private static final Charset PROTOCOL_ENCODING = StandardCharsets.UTF_8; // vscode protocol uses UTF-8 as encoding format.
+    private static final ScheduledThreadPoolExecutor TIMEOUT_SCHEDULER = createTimeoutScheduler();
 
     protected boolean terminateSession = false;
 
-    private Reader reader;
-    private Writer writer;
+    private InputStream input;
+    private ReadableByteChannel channel;
+    private java.nio.ByteBuffer readBuffer;
+    private MessageWriter messageWriter;
+    private ProtocolTrace trace = ProtocolTrace.create();
 
     private ByteBuffer rawData;
     private int contentLength = -1;
-    private AtomicInteger sequenceNumber = new AtomicInteger(1);
+    private int headerScanOffset = 0;
 
-    private PublishSubject<Messages.Response> responseSubject = PublishSubject.<Messages.Response>create();
+    private ConcurrentHashMap<Integer, CompletableFuture<Messages.Response>> pendingRequests = new ConcurrentHashMap<>();
     private PublishSubject<Messages.Request> requestSubject = PublishSubject.<Messages.Request>create();
 
     /**
@@ -68,8 +77,9 @@ public abstract class AbstractProtocolServer implements IProtocolServer {
      *            the output stream
      */
     public AbstractProtocolServer(InputStream input, OutputStream output) {
-        this.reader = new BufferedReader(new InputStreamReader(input, PROTOCOL_ENCODING));
-        this.writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(output, PROTOCOL_ENCODING)));
+        this.input = input;
+        this.messageWriter = new MessageWriter(output);
+        this.messageWriter.start();
         this.contentLength = -1;
         this.rawData = new ByteBuffer();
 
@@ -78,30 +88,50 @@ public abstract class AbstractProtocolServer implements IProtocolServer {
                 this.dispatchRequest(request);
             } catch (Exception e) {
                 logger.log(Level.SEVERE, String.format("Dispatch debug protocol error: %s", e.toString()), e);
+                dumpTrace();
             }
         });
     }
 
+    /**
+     * Constructs a protocol server instance based on the given channel, e.g. an
+     * accepted socket connection. Input is read through a direct buffer.
+     *
+     * @param channel
+     *            the channel to read requests from and write responses to
+     */
+    public AbstractProtocolServer(ByteChannel channel) {
+        this((InputStream) null, Channels.newOutputStream(channel));
+        this.channel = channel;
+        this.readBuffer = java.nio.ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
     /**
      * A while-loop to parse input data and send output data constantly.
      */
     public void run() {
-        char[] buffer = new char[BUFFER_SIZE];
         try {
             while (!this.terminateSession) {
-                int read = this.reader.read(buffer, 0, BUFFER_SIZE);
+                int read = this.channel != null ? this.rawData.readFrom(this.channel, this.readBuffer)
+                        : this.rawData.readFrom(this.input, BUFFER_SIZE);
                 if (read == -1) {
                     break;
                 }
 
-                this.rawData.append(new String(buffer, 0, read).getBytes(PROTOCOL_ENCODING));
                 this.processData();
+                this.rawData.trim();
             }
         } catch (IOException e) {
             logger.log(Level.SEVERE, String.format("Read data from io exception: %s", e.toString()), e);
+            dumpTrace();
         }
 
         requestSubject.onComplete();
+        messageWriter.close();
+
+        IOException closed = new IOException("The connection is closed.");
+        pendingRequests.values().forEach(future -> future.completeExceptionally(closed));
+        pendingRequests.clear();
     }
 
     /**
@@ -113,41 +143,37 @@ public abstract class AbstractProtocolServer implements IProtocolServer {
     }
 
     /**
-     * Send a request/response/event to the DA.
+     * Dumps the recent protocol frames to a file, if the trace is enabled by the
+     * {@value ProtocolTrace#TRACE_SIZE_PROPERTY} system property.
      *
-     * @param message
-     *            the message.
+     * @return the file the trace was written to, or null if there is no trace
      */
-    private void sendMessage(Messages.ProtocolMessage message) {
-        message.seq = this.sequenceNumber.getAndIncrement();
-
-        String jsonMessage = JsonUtils.toJson(message);
-        byte[] jsonBytes = jsonMessage.getBytes(PROTOCOL_ENCODING);
-
-        String header = String.format("Content-Length: %d%s", jsonBytes.length, TWO_CRLF);
-        byte[] headerBytes = header.getBytes(PROTOCOL_ENCODING);
-
-        ByteBuffer data = new ByteBuffer();
-        data.append(headerBytes);
-        data.append(jsonBytes);
-
-        String utf8Data = data.getString(PROTOCOL_ENCODING);
+    public Path dumpTrace() {
+        if (this.trace == null) {
+            return null;
+        }
 
         try {
-            if (message instanceof Messages.Request) {
-                logger.fine("\n[[REQUEST]]\n" + utf8Data);
-            } else if (message instanceof Messages.Event) {
-                logger.fine("\n[[EVENT]]\n" + utf8Data);
-            } else {
-                logger.fine("\n[[RESPONSE]]\n" + utf8Data);
-            }
-            this.writer.write(utf8Data);
-            this.writer.flush();
+            Path file = this.trace.dump();
+            logger.info("Protocol trace is written to " + file);
+            return file;
         } catch (IOException e) {
-            logger.log(Level.SEVERE, String.format("Write data to io exception: %s", e.toString()), e);
+            logger.log(Level.SEVERE, String.format("Dump protocol trace error: %s", e.toString()), e);
+            return null;
         }
     }
 
+    /**
+     * Send a request/response/event to the DA. The sequence number is assigned by
+     * the writer thread, so it follows the order the messages are written in.
+     *
+     * @param message
+     *            the message.
+     */
+    private void sendMessage(Messages.ProtocolMessage message) {
+        this.messageWriter.send(message, null);
+    }
+
     @Override
     public void sendEvent(DebugEvent event) {
         sendMessage(new Messages.Event(event.type, event));
@@ -166,122 +192,500 @@ public abstract class AbstractProtocolServer implements IProtocolServer {
     @Override
     public CompletableFuture<Messages.Response> sendRequest(Messages.Request request, long timeout) {
         CompletableFuture<Messages.Response> future = new CompletableFuture<>();
-        Timer timer = new Timer();
-        Disposable[] disposable = new Disposable[1];
-        disposable[0] = responseSubject.filter(response -> response.request_seq == request.seq).take(1)
-                .observeOn(Schedulers.newThread()).subscribe((response) -> {
-                    try {
-                        timer.cancel();
-                        future.complete(response);
-                        if (disposable[0] != null) {
-                            disposable[0].dispose();
-                        }
-                    } catch (Exception e) {
-                        logger.log(Level.SEVERE, String.format("Handle response error: %s", e.toString()), e);
-                    }
-                });
-        sendMessage(request);
         if (timeout > 0) {
-            try {
-                timer.schedule(new TimerTask() {
-                    @Override
-                    public void run() {
-                        if (disposable[0] != null) {
-                            disposable[0].dispose();
-                        }
-                        future.completeExceptionally(new TimeoutException("timeout"));
-                    }
-                }, timeout);
-            } catch (IllegalStateException ex) {
-                // if timer or task has been cancelled, do nothing.
-            }
+            ScheduledFuture<?> timeoutTask = TIMEOUT_SCHEDULER.schedule(() -> {
+                if (future.completeExceptionally(new TimeoutException("timeout"))) {
+                    this.pendingRequests.values().remove(future);
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+            future.whenComplete((response, ex) -> timeoutTask.cancel(false));
         }
+
+        this.messageWriter.send(request, future);
         return future;
     }
 
+    /**
+     * Completes the request the response belongs to. The future is completed on
+     * another thread, so its callbacks don't block reading the input.
+     */
+    private void handleResponse(Messages.Response response) {
+        CompletableFuture<Messages.Response> future = this.pendingRequests.remove(response.request_seq);
+        if (future != null) {
+            ForkJoinPool.commonPool().execute(() -> future.complete(response));
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor createTimeoutScheduler() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "protocol-request-timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
     private void processData() {
         while (true) {
+            if (this.contentLength < 0) {
+                // Only the bytes that arrived since the last call are scanned, the last three
+                // are kept in case the delimiter is split between two reads.
+                int headerLength = this.rawData.indexOf(TWO_CRLF_BYTES, this.headerScanOffset, this.rawData.length());
+                if (headerLength == -1) {
+                    this.headerScanOffset = Math.max(0, this.rawData.length() - (TWO_CRLF_BYTES.length - 1));
+                    break;
+                }
+
+                this.contentLength = parseContentLength(headerLength);
+                this.rawData.skip(headerLength + TWO_CRLF_BYTES.length); // Remove the header from the raw message.
+                this.headerScanOffset = 0;
+                if (this.contentLength < 0) {
+                    logger.log(Level.SEVERE, "Error parsing message: missing Content-Length header.");
+                    continue;
+                }
+            }
+
             /**
              * In vscode debug protocol, the content length represents the
              * message's byte length with utf8 format.
              */
-            if (this.contentLength >= 0) {
-                if (this.rawData.length() >= this.contentLength) {
-                    byte[] buf = this.rawData.removeFirst(this.contentLength);
-                    this.contentLength = -1;
-                    String messageData = new String(buf, PROTOCOL_ENCODING);
-                    try {
-                        Messages.ProtocolMessage message = JsonUtils.fromJson(messageData, Messages.ProtocolMessage.class);
-
-                        logger.fine(String.format("\n[%s]\n%s", message.type, messageData));
-
-                        if (message.type.equals("request")) {
-                            Messages.Request request = JsonUtils.fromJson(messageData, Messages.Request.class);
-                            requestSubject.onNext(request);
-                        } else if (message.type.equals("response")) {
-                            Messages.Response response = JsonUtils.fromJson(messageData, Messages.Response.class);
-                            responseSubject.onNext(response);
+            if (this.rawData.length() < this.contentLength) {
+                break;
+            }
+
+            if (this.trace != null) {
+                this.rawData.writeTo(this.trace, ProtocolTrace.Direction.IN, 0, this.contentLength);
+            }
+            String messageData = this.rawData.removeFirst(this.contentLength, PROTOCOL_ENCODING);
+            this.contentLength = -1;
+            try {
+                Messages.ProtocolMessage message = MessageDecoder.decode(messageData);
+                if (message instanceof Messages.Request) {
+                    Messages.Request request = (Messages.Request) message;
+                    if (!dispatchImmediately(request)) {
+                        requestSubject.onNext(request);
+                    }
+                } else if (message instanceof Messages.Response) {
+                    handleResponse((Messages.Response) message);
+                }
+            } catch (Exception ex) {
+                logger.log(Level.SEVERE, String.format("Error parsing message: %s", ex.toString()), ex);
+                dumpTrace();
+            }
+        }
+    }
+
+    /**
+     * Parses the Content-Length value out of the header that occupies the first
+     * headerLength bytes of the buffer. Header fields are ASCII, so the digits are
+     * read directly from the bytes.
+     *
+     * @return the content length, or -1 if the header doesn't contain a valid one
+     */
+    private int parseContentLength(int headerLength) {
+        int lineStart = 0;
+        while (lineStart < headerLength) {
+            int lineEnd = this.rawData.indexOf(CRLF, lineStart, headerLength);
+            if (lineEnd == -1) {
+                lineEnd = headerLength;
+            }
+
+            if (this.rawData.startsWithIgnoreCase(CONTENT_LENGTH, lineStart, lineEnd)) {
+                long value = -1;
+                for (int i = lineStart + CONTENT_LENGTH.length; i < lineEnd; i++) {
+                    byte b = this.rawData.get(i);
+                    if (b >= '0' && b <= '9') {
+                        value = (value < 0 ? 0 : value * 10) + (b - '0');
+                        if (value > Integer.MAX_VALUE) {
+                            return -1;
                         }
-                    } catch (Exception ex) {
-                        logger.log(Level.SEVERE, String.format("Error parsing message: %s", ex.toString()), ex);
+                    } else if (b != ' ' && b != '\t' || value >= 0) {
+                        break;
                     }
+                }
+                return (int) value;
+            }
+            lineStart = lineEnd + CRLF.length;
+        }
+        return -1;
+    }
+
+    protected abstract void dispatchRequest(Messages.Request request);
+
+    /**
+     * Dispatches the request ahead of the requests received before it, if it has to
+     * be. It's called on the reader thread, so it mustn't block.
+     *
+     * @return whether the request was dispatched, otherwise it's queued behind the
+     *         others for {@link #dispatchRequest(Messages.Request)}
+     */
+    protected boolean dispatchImmediately(Messages.Request request) {
+        return false;
+    }
 
+    /**
+     * Writes outgoing messages on a dedicated thread. Producers only enqueue into a
+     * lock-free queue, the writer numbers and encodes every message once and flushes
+     * the output once per batch of messages that were queued meanwhile.
+     */
+    private class MessageWriter extends Thread {
+        private ConcurrentLinkedQueue<OutgoingMessage> queue = new ConcurrentLinkedQueue<>();
+        private int sequenceNumber = 1;
+        private OutputStream output;
+        private ByteBuffer frames = new ByteBuffer();
+        private ByteBuffer body = new ByteBuffer();
+        private Writer bodyWriter = new OutputStreamWriter(body.asOutputStream(), PROTOCOL_ENCODING);
+        private volatile boolean closed = false;
+        private volatile boolean stopped = false;
+
+        MessageWriter(OutputStream output) {
+            super("protocol-writer");
+            this.output = output;
+            setDaemon(true);
+        }
+
+        /**
+         * Queues the message. If it's a request, the future is registered for its
+         * response once the request gets its sequence number.
+         */
+        void send(Messages.ProtocolMessage message, CompletableFuture<Messages.Response> response) {
+            OutgoingMessage outgoing = new OutgoingMessage(message, response);
+            if (this.closed) {
+                drop(outgoing);
+                return;
+            }
+            this.queue.offer(outgoing);
+            LockSupport.unpark(this);
+            if (this.stopped) {
+                // The writer stopped before it could see the message.
+                dropQueued();
+            }
+        }
+
+        /**
+         * Writes out the messages that are already queued and waits for the thread to
+         * stop, so the caller can close the output afterwards.
+         */
+        void close() {
+            this.closed = true;
+            LockSupport.unpark(this);
+            try {
+                join(CLOSE_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (isAlive()) {
+                logger.warning("Protocol writer didn't drain in " + CLOSE_TIMEOUT + " ms.");
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                OutgoingMessage message = this.queue.poll();
+                if (message == null) {
+                    flush();
+                    if (this.closed && this.queue.isEmpty()) {
+                        this.stopped = true;
+                        dropQueued();
+                        break;
+                    }
+                    LockSupport.park(this);
                     continue;
                 }
+
+                try {
+                    encode(message);
+                } catch (Exception e) {
+                    logger.log(Level.SEVERE, String.format("Encode message error: %s", e.toString()), e);
+                    dumpTrace();
+                }
+                if (this.frames.length() >= MAX_BATCH_SIZE) {
+                    flush();
+                }
             }
+        }
 
-            String rawMessage = this.rawData.getString(PROTOCOL_ENCODING);
-            int idx = rawMessage.indexOf(TWO_CRLF);
-            if (idx != -1) {
-                Matcher matcher = CONTENT_LENGTH_MATCHER.matcher(rawMessage);
-                if (matcher.find()) {
-                    this.contentLength = Integer.parseInt(matcher.group(1));
-                    int headerByteLength = rawMessage.substring(0, idx + TWO_CRLF.length())
-                            .getBytes(PROTOCOL_ENCODING).length;
-                    this.rawData.removeFirst(headerByteLength); // Remove the header from the raw message.
-                    continue;
+        /**
+         * Drops the messages that were queued after the writer stopped.
+         */
+        private void dropQueued() {
+            OutgoingMessage outgoing;
+            while ((outgoing = this.queue.poll()) != null) {
+                drop(outgoing);
+            }
+        }
+
+        private void drop(OutgoingMessage outgoing) {
+            logger.fine("Protocol writer is closed, dropping message " + outgoing.message.type);
+            if (outgoing.response != null) {
+                outgoing.response.completeExceptionally(new IOException("The connection is closed."));
+            }
+        }
+
+        private void encode(OutgoingMessage outgoing) throws IOException {
+            Messages.ProtocolMessage message = outgoing.message;
+            message.seq = this.sequenceNumber++;
+
+            this.body.clear();
+            try {
+                JsonUtils.toJson(message, this.bodyWriter);
+                this.bodyWriter.flush();
+            } catch (IOException | RuntimeException e) {
+                // The writer may still hold chars of the failed message, they mustn't end up in the next one.
+                this.bodyWriter = new OutputStreamWriter(this.body.asOutputStream(), PROTOCOL_ENCODING);
+                if (outgoing.response != null) {
+                    outgoing.response.completeExceptionally(e);
                 }
+                throw e;
             }
 
-            break;
+            if (outgoing.response != null) {
+                pendingRequests.put(message.seq, outgoing.response);
+                if (outgoing.response.isDone()) {
+                    // Timed out before it was written.
+                    pendingRequests.remove(message.seq);
+                }
+            }
+
+            int frameStart = this.frames.length();
+            String header = String.format("Content-Length: %d%s", this.body.length(), TWO_CRLF);
+            this.frames.append(header.getBytes(PROTOCOL_ENCODING));
+            this.frames.append(this.body);
+            this.body.clear();
+            this.body.trim();
+
+            if (trace != null) {
+                this.frames.writeTo(trace, ProtocolTrace.Direction.OUT, frameStart, this.frames.length() - frameStart);
+            }
+        }
+
+        private void flush() {
+            if (this.frames.length() == 0) {
+                return;
+            }
+
+            try {
+                this.frames.writeTo(this.output);
+                this.output.flush();
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, String.format("Write data to io exception: %s", e.toString()), e);
+                dumpTrace();
+            }
+            this.frames.clear();
+            this.frames.trim();
         }
     }
 
-    protected abstract void dispatchRequest(Messages.Request request);
+    private static class OutgoingMessage {
+        final Messages.ProtocolMessage message;
+        final CompletableFuture<Messages.Response> response;
+
+        OutgoingMessage(Messages.ProtocolMessage message, CompletableFuture<Messages.Response> response) {
+            this.message = message;
+            this.response = response;
+        }
+    }
 
+    /**
+     * A growable byte buffer with read and write indices. Consumed bytes are
+     * reclaimed by compacting the readable region to the front of the backing
+     * array, so appending a chunk or consuming a message does not reallocate and
+     * copy the whole backlog.
+     */
     class ByteBuffer {
         private byte[] buffer;
+        private int readIndex;
+        private int writeIndex;
 
         public ByteBuffer() {
-            this.buffer = new byte[0];
+            this(BUFFER_SIZE);
+        }
+
+        public ByteBuffer(int initialCapacity) {
+            this.buffer = new byte[initialCapacity];
         }
 
         public int length() {
+            return this.writeIndex - this.readIndex;
+        }
+
+        public int capacity() {
             return this.buffer.length;
         }
 
-        public String getString(Charset cs) {
-            return new String(this.buffer, cs);
+        public byte get(int offset) {
+            return this.buffer[this.readIndex + offset];
+        }
+
+        /**
+         * Returns the offset of the first occurrence of the pattern which starts at or
+         * after fromOffset and ends at or before toOffset, or -1 if there is none.
+         */
+        public int indexOf(byte[] pattern, int fromOffset, int toOffset) {
+            int last = this.readIndex + toOffset - pattern.length;
+            outer:
+            for (int i = this.readIndex + fromOffset; i <= last; i++) {
+                for (int j = 0; j < pattern.length; j++) {
+                    if (this.buffer[i + j] != pattern[j]) {
+                        continue outer;
+                    }
+                }
+                return i - this.readIndex;
+            }
+            return -1;
+        }
+
+        /**
+         * Checks whether the region [fromOffset, toOffset) starts with the given ASCII
+         * prefix, ignoring case.
+         */
+        public boolean startsWithIgnoreCase(byte[] prefix, int fromOffset, int toOffset) {
+            if (toOffset - fromOffset < prefix.length) {
+                return false;
+            }
+            for (int i = 0; i < prefix.length; i++) {
+                byte b = this.buffer[this.readIndex + fromOffset + i];
+                if (Character.toLowerCase(b) != Character.toLowerCase(prefix[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Reads up to maxLength bytes from the input stream directly into the free
+         * space at the end of the buffer.
+         *
+         * @return the number of bytes read, or -1 at the end of the stream
+         */
+        public int readFrom(InputStream in, int maxLength) throws IOException {
+            ensureWritable(maxLength);
+            int read = in.read(this.buffer, this.writeIndex, maxLength);
+            if (read > 0) {
+                this.writeIndex += read;
+            }
+            return read;
+        }
+
+        /**
+         * Reads from the channel through the given direct buffer and appends the bytes
+         * to the end of the buffer.
+         *
+         * @return the number of bytes read, or -1 at the end of the stream
+         */
+        public int readFrom(ReadableByteChannel in, java.nio.ByteBuffer readBuffer) throws IOException {
+            readBuffer.clear();
+            int read = in.read(readBuffer);
+            if (read > 0) {
+                readBuffer.flip();
+                ensureWritable(read);
+                readBuffer.get(this.buffer, this.writeIndex, read);
+                this.writeIndex += read;
+            }
+            return read;
+        }
+
+        public void append(ByteBuffer b) {
+            append(b.buffer, b.readIndex, b.length());
         }
 
         public void append(byte[] b) {
-            append(b, b.length);
+            append(b, 0, b.length);
         }
 
         public void append(byte[] b, int length) {
-            byte[] newBuffer = new byte[this.buffer.length + length];
-            System.arraycopy(buffer, 0, newBuffer, 0, this.buffer.length);
-            System.arraycopy(b, 0, newBuffer, this.buffer.length, length);
-            this.buffer = newBuffer;
+            append(b, 0, length);
         }
 
-        public byte[] removeFirst(int n) {
-            byte[] b = new byte[n];
-            System.arraycopy(this.buffer, 0, b, 0, n);
-            byte[] newBuffer = new byte[this.buffer.length - n];
-            System.arraycopy(this.buffer, n, newBuffer, 0, this.buffer.length - n);
+        public void append(byte[] b, int offset, int length) {
+            ensureWritable(length);
+            System.arraycopy(b, offset, this.buffer, this.writeIndex, length);
+            this.writeIndex += length;
+        }
+
+        /**
+         * Decodes the first n bytes straight from the backing array and removes them.
+         */
+        public String removeFirst(int n, Charset cs) {
+            String value = new String(this.buffer, this.readIndex, n, cs);
+            skip(n);
+            return value;
+        }
+
+        public void writeTo(OutputStream out) throws IOException {
+            out.write(this.buffer, this.readIndex, length());
+        }
+
+        public void writeTo(ProtocolTrace trace, ProtocolTrace.Direction direction, int offset, int length) {
+            trace.record(direction, this.buffer, this.readIndex + offset, length);
+        }
+
+        /**
+         * Returns a stream which appends everything written to it to this buffer.
+         */
+        public OutputStream asOutputStream() {
+            return new OutputStream() {
+                @Override
+                public void write(int b) {
+                    ensureWritable(1);
+                    buffer[writeIndex++] = (byte) b;
+                }
+
+                @Override
+                public void write(byte[] b, int offset, int length) {
+                    append(b, offset, length);
+                }
+            };
+        }
+
+        public void clear() {
+            this.readIndex = 0;
+            this.writeIndex = 0;
+        }
+
+        /**
+         * Gives up a backing array that has grown past {@value #MAX_RETAINED_SIZE} bytes
+         * once what's left to read fits into {@value #BUFFER_SIZE} bytes, so the largest
+         * message ever seen doesn't stay allocated.
+         */
+        public void trim() {
+            int readable = length();
+            if (this.buffer.length <= MAX_RETAINED_SIZE || readable > BUFFER_SIZE) {
+                return;
+            }
+            byte[] newBuffer = new byte[BUFFER_SIZE];
+            System.arraycopy(this.buffer, this.readIndex, newBuffer, 0, readable);
             this.buffer = newBuffer;
-            return b;
+            this.readIndex = 0;
+            this.writeIndex = readable;
+        }
+
+        public void skip(int n) {
+            this.readIndex += n;
+            if (this.readIndex == this.writeIndex) {
+                this.readIndex = 0;
+                this.writeIndex = 0;
+            }
+        }
+
+        private void ensureWritable(int length) {
+            if (this.buffer.length - this.writeIndex >= length) {
+                return;
+            }
+
+            int readable = length();
+            if (readable + length <= this.buffer.length && readable <= this.buffer.length / 2) {
+                // At least half of the array has been consumed, so moving the rest is amortized O(1).
+                System.arraycopy(this.buffer, this.readIndex, this.buffer, 0, readable);
+            } else {
+                byte[] newBuffer = new byte[Math.max(this.buffer.length * 2, readable + length)];
+                System.arraycopy(this.buffer, this.readIndex, newBuffer, 0, readable);
+                this.buffer = newBuffer;
+            }
+            this.readIndex = 0;
+            this.writeIndex = readable;
         }
     }
 }
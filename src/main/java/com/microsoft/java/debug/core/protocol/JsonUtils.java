@@ -12,15 +12,20 @@
 package com.microsoft.java.debug.core.protocol;
 
 import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
 
 import java.lang.reflect.Type;
 
 public class JsonUtils {
-    private static final Gson GSON = new Gson();
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapterFactory(new ProtocolTypeAdapters())
+            .create();
 
     public static <T> T fromJson(String json, Class<T> classOfT) throws JsonSyntaxException {
         return GSON.fromJson(json, classOfT);
@@ -30,6 +35,10 @@ public class JsonUtils {
         return GSON.fromJson(json, typeOfT);
     }
 
+    public static <T> T fromJson(JsonReader reader, Type typeOfT) throws JsonIOException, JsonSyntaxException {
+        return GSON.fromJson(reader, typeOfT);
+    }
+
     public static <T> T fromJson(JsonElement json, Class<T> classOfT) throws JsonSyntaxException {
         return GSON.fromJson(json, classOfT);
     }
@@ -42,6 +51,10 @@ public class JsonUtils {
         return GSON.toJson(src);
     }
 
+    public static void toJson(Object src, Appendable writer) throws JsonIOException {
+        GSON.toJson(src, writer);
+    }
+
     public static String toJson(Object src, Type typeOfSrc) {
         return GSON.toJson(src, typeOfSrc);
     }
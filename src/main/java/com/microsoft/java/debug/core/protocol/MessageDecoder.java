@@ -0,0 +1,121 @@
+/*******************************************************************************
+* Copyright (c) 2017 Microsoft Corporation and others.
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Eclipse Public License v1.0
+* which accompanies this distribution, and is available at
+* http://www.eclipse.org/legal/epl-v10.html
+*
+* Contributors:
+*     Microsoft Corporation - initial API and implementation
+*******************************************************************************/
+
+package com.microsoft.java.debug.core.protocol;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import com.microsoft.java.debug.core.protocol.Requests.Command;
+
+/**
+ * Decodes an incoming protocol message in a single pass. The message type and
+ * the command are picked up while the fields are read, and request arguments are
+ * bound straight to the arguments class of the command, so a frame is neither
+ * parsed twice nor turned into a JSON tree first.
+ */
+public class MessageDecoder {
+
+    /**
+     * Decodes a request or a response. Any other message type is returned as a
+     * bare {@link Messages.ProtocolMessage}.
+     *
+     * @param json
+     *            the message payload
+     * @return the decoded message
+     * @throws IOException
+     *             if the payload isn't a valid JSON object
+     */
+    public static Messages.ProtocolMessage decode(String json) throws IOException {
+        JsonReader reader = new JsonReader(new StringReader(json));
+
+        int seq = 0;
+        String type = null;
+        String command = null;
+        JsonElement rawArguments = null;
+        Requests.Arguments arguments = null;
+        boolean success = false;
+        String message = null;
+        int requestSeq = 0;
+        Object body = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+            case "seq":
+                seq = reader.nextInt();
+                break;
+            case "type":
+                type = nextString(reader);
+                break;
+            case "command":
+                command = nextString(reader);
+                break;
+            case "arguments":
+                if (command != null) {
+                    arguments = JsonUtils.fromJson(reader, Command.parse(command).getArgumentType());
+                } else {
+                    // The command comes later, keep the tree and bind it at the end.
+                    rawArguments = new JsonParser().parse(reader);
+                }
+                break;
+            case "success":
+                success = reader.nextBoolean();
+                break;
+            case "message":
+                message = nextString(reader);
+                break;
+            case "request_seq":
+                requestSeq = reader.nextInt();
+                break;
+            case "body":
+                body = JsonUtils.fromJson(reader, Object.class);
+                break;
+            default:
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if ("request".equals(type)) {
+            Messages.Request request = new Messages.Request(seq, command,
+                    rawArguments instanceof JsonObject ? (JsonObject) rawArguments : null);
+            if (rawArguments != null && command != null) {
+                arguments = JsonUtils.fromJson(rawArguments, Command.parse(command).getArgumentType());
+            }
+            request.typedArguments = arguments;
+            return request;
+        } else if ("response".equals(type)) {
+            Messages.Response response = new Messages.Response(requestSeq, command, success, message);
+            response.seq = seq;
+            response.body = body;
+            return response;
+        }
+
+        Messages.ProtocolMessage protocolMessage = new Messages.ProtocolMessage(type);
+        protocolMessage.seq = seq;
+        return protocolMessage;
+    }
+
+    private static String nextString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+}
@@ -31,6 +31,12 @@ public class Messages {
         public String command;
         public JsonObject arguments;
 
+        /**
+         * The arguments bound to the arguments type of the command, if the request was
+         * decoded by {@link MessageDecoder}.
+         */
+        public transient Requests.Arguments typedArguments;
+
         /**
          * Constructor.
          */
@@ -0,0 +1,104 @@
+/*******************************************************************************
+* Copyright (c) 2017 Microsoft Corporation and others.
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Eclipse Public License v1.0
+* which accompanies this distribution, and is available at
+* http://www.eclipse.org/legal/epl-v10.html
+*
+* Contributors:
+*     Microsoft Corporation - initial API and implementation
+*******************************************************************************/
+
+package com.microsoft.java.debug.core.protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Keeps the most recent protocol frames, exactly as they were read or written,
+ * in a fixed-size ring buffer. Nothing is serialized for the trace, and the
+ * buffer can be dumped to a file when something goes wrong.
+ *
+ * <p>The trace is enabled by the <code>pig.debug.trace.size</code> system property
+ * (the ring size in bytes). Dumps are written to the directory set by
+ * <code>pig.debug.trace.dir</code>, the temporary directory by default.
+ */
+public class ProtocolTrace {
+    public static final String TRACE_SIZE_PROPERTY = "pig.debug.trace.size";
+    public static final String TRACE_DIR_PROPERTY = "pig.debug.trace.dir";
+
+    public enum Direction {
+        IN, OUT
+    }
+
+    private byte[] ring;
+    private long written;
+
+    public ProtocolTrace(int size) {
+        this.ring = new byte[size];
+    }
+
+    /**
+     * Creates a trace if it's enabled by the system properties.
+     *
+     * @return the trace, or null if tracing is disabled
+     */
+    public static ProtocolTrace create() {
+        int size = Integer.getInteger(TRACE_SIZE_PROPERTY, 0);
+        return size > 0 ? new ProtocolTrace(size) : null;
+    }
+
+    /**
+     * Records a frame, overwriting the oldest records if the ring is full.
+     */
+    public synchronized void record(Direction direction, byte[] frame, int offset, int length) {
+        put(String.format("%n[%s %d]%n", direction, System.currentTimeMillis()).getBytes(StandardCharsets.US_ASCII));
+        put(frame, offset, length);
+    }
+
+    /**
+     * Writes the recorded frames, oldest first, to a new file in the trace
+     * directory. The oldest record may be truncated if the ring has wrapped.
+     *
+     * @return the file the trace was written to
+     */
+    public Path dump() throws IOException {
+        Path dir = Paths.get(System.getProperty(TRACE_DIR_PROPERTY, System.getProperty("java.io.tmpdir")));
+        Path file = Files.createTempFile(dir, "pig-debug-protocol-", ".trace");
+        try (OutputStream out = Files.newOutputStream(file)) {
+            dump(out);
+        }
+        return file;
+    }
+
+    public synchronized void dump(OutputStream out) throws IOException {
+        if (this.written <= this.ring.length) {
+            out.write(this.ring, 0, (int) this.written);
+        } else {
+            int position = (int) (this.written % this.ring.length);
+            out.write(this.ring, position, this.ring.length - position);
+            out.write(this.ring, 0, position);
+        }
+    }
+
+    private void put(byte[] b) {
+        put(b, 0, b.length);
+    }
+
+    private void put(byte[] b, int offset, int length) {
+        if (length > this.ring.length) {
+            offset += length - this.ring.length;
+            length = this.ring.length;
+        }
+
+        int position = (int) (this.written % this.ring.length);
+        int head = Math.min(length, this.ring.length - position);
+        System.arraycopy(b, offset, this.ring, position, head);
+        System.arraycopy(b, offset + head, this.ring, 0, length - head);
+        this.written += length;
+    }
+}
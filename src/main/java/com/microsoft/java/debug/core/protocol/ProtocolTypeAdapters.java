@@ -0,0 +1,332 @@
+/*******************************************************************************
+* Copyright (c) 2017 Microsoft Corporation and others.
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Eclipse Public License v1.0
+* which accompanies this distribution, and is available at
+* http://www.eclipse.org/legal/epl-v10.html
+*
+* Contributors:
+*     Microsoft Corporation - initial API and implementation
+*******************************************************************************/
+
+package com.microsoft.java.debug.core.protocol;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Hand-written serializers for the protocol types that dominate the traffic, so
+ * Gson doesn't reflect over their fields on every message. The output is the same
+ * as Gson's default: fields in the same order, null fields omitted.
+ *
+ * <p>Only exact classes are matched, subclasses still use the reflective adapter.
+ * These types are hardly ever received, so reading is delegated to the reflective
+ * adapter, which is only created on the first read.
+ */
+public class ProtocolTypeAdapters implements TypeAdapterFactory {
+    private static final Map<Class<?>, ValueWriter<?>> WRITERS = new HashMap<>();
+
+    static {
+        register(Messages.Event.class, ProtocolTypeAdapters::writeEvent);
+        register(Messages.Response.class, ProtocolTypeAdapters::writeResponse);
+        register(Events.OutputEvent.class, ProtocolTypeAdapters::writeOutputEvent);
+        register(Events.StoppedEvent.class, ProtocolTypeAdapters::writeStoppedEvent);
+        register(Types.Message.class, (out, value, gson) -> writeMessage(out, value));
+        register(Types.StackFrame.class, (out, value, gson) -> writeStackFrame(out, value));
+        register(Types.Source.class, (out, value, gson) -> writeSource(out, value));
+        register(Types.Scope.class, (out, value, gson) -> writeScope(out, value));
+        register(Types.Variable.class, (out, value, gson) -> writeVariable(out, value));
+        register(Types.Thread.class, (out, value, gson) -> writeThread(out, value));
+        register(Types.Breakpoint.class, (out, value, gson) -> writeBreakpoint(out, value));
+        register(Responses.ErrorResponseBody.class, ProtocolTypeAdapters::writeErrorResponseBody);
+        register(Responses.StackTraceResponseBody.class, ProtocolTypeAdapters::writeStackTraceResponseBody);
+        register(Responses.ScopesResponseBody.class, ProtocolTypeAdapters::writeScopesResponseBody);
+        register(Responses.VariablesResponseBody.class, ProtocolTypeAdapters::writeVariablesResponseBody);
+        register(Responses.ThreadsResponseBody.class, ProtocolTypeAdapters::writeThreadsResponseBody);
+        register(Responses.EvaluateResponseBody.class, ProtocolTypeAdapters::writeEvaluateResponseBody);
+        register(Responses.SetBreakpointsResponseBody.class, ProtocolTypeAdapters::writeSetBreakpointsResponseBody);
+    }
+
+    @FunctionalInterface
+    private interface ValueWriter<T> {
+        void write(JsonWriter out, T value, Gson gson) throws IOException;
+    }
+
+    private static <T> void register(Class<T> type, ValueWriter<T> writer) {
+        WRITERS.put(type, writer);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        ValueWriter<T> writer = (ValueWriter<T>) WRITERS.get(type.getRawType());
+        if (writer == null) {
+            return null;
+        }
+
+        TypeAdapterFactory skipPast = this;
+        return new TypeAdapter<T>() {
+            private TypeAdapter<T> delegate;
+
+            @Override
+            public void write(JsonWriter out, T value) throws IOException {
+                if (value == null) {
+                    out.nullValue();
+                } else {
+                    writer.write(out, value, gson);
+                }
+            }
+
+            @Override
+            public T read(JsonReader in) throws IOException {
+                if (delegate == null) {
+                    delegate = gson.getDelegateAdapter(skipPast, type);
+                }
+                return delegate.read(in);
+            }
+        };
+    }
+
+    /**
+     * Writes a value whose type is only known at runtime, e.g. a message body.
+     */
+    @SuppressWarnings("unchecked")
+    private static void writeObject(JsonWriter out, Object value, Gson gson) throws IOException {
+        if (value == null) {
+            out.nullValue();
+            return;
+        }
+        ((TypeAdapter<Object>) gson.getAdapter(value.getClass())).write(out, value);
+    }
+
+    private static void writeEvent(JsonWriter out, Messages.Event event, Gson gson) throws IOException {
+        out.beginObject();
+        out.name("event").value(event.event);
+        out.name("body");
+        writeObject(out, event.body, gson);
+        out.name("seq").value(event.seq);
+        out.name("type").value(event.type);
+        out.endObject();
+    }
+
+    private static void writeResponse(JsonWriter out, Messages.Response response, Gson gson) throws IOException {
+        out.beginObject();
+        out.name("success").value(response.success);
+        out.name("message").value(response.message);
+        out.name("request_seq").value(response.request_seq);
+        out.name("command").value(response.command);
+        out.name("body");
+        writeObject(out, response.body, gson);
+        out.name("seq").value(response.seq);
+        out.name("type").value(response.type);
+        out.endObject();
+    }
+
+    private static void writeOutputEvent(JsonWriter out, Events.OutputEvent event, Gson gson) throws IOException {
+        out.beginObject();
+        out.name("category").value(event.category == null ? null : event.category.name());
+        out.name("output").value(event.output);
+        out.name("variablesReference").value(event.variablesReference);
+        out.name("source");
+        writeSource(out, event.source);
+        out.name("line").value(event.line);
+        out.name("column").value(event.column);
+        out.name("data");
+        writeObject(out, event.data, gson);
+        out.name("type").value(event.type);
+        out.endObject();
+    }
+
+    private static void writeStoppedEvent(JsonWriter out, Events.StoppedEvent event, Gson gson) throws IOException {
+        out.beginObject();
+        out.name("threadId").value(event.threadId);
+        out.name("reason").value(event.reason);
+        out.name("description").value(event.description);
+        out.name("text").value(event.text);
+        out.name("allThreadsStopped").value(event.allThreadsStopped);
+        out.name("type").value(event.type);
+        out.endObject();
+    }
+
+    private static void writeMessage(JsonWriter out, Types.Message message) throws IOException {
+        if (message == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("id").value(message.id);
+        out.name("format").value(message.format);
+        out.endObject();
+    }
+
+    private static void writeStackFrame(JsonWriter out, Types.StackFrame frame) throws IOException {
+        if (frame == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("id").value(frame.id);
+        out.name("source");
+        writeSource(out, frame.source);
+        out.name("line").value(frame.line);
+        out.name("column").value(frame.column);
+        out.name("name").value(frame.name);
+        out.endObject();
+    }
+
+    private static void writeSource(JsonWriter out, Types.Source source) throws IOException {
+        if (source == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("name").value(source.name);
+        out.name("path").value(source.path);
+        out.name("sourceReference").value(source.sourceReference);
+        out.endObject();
+    }
+
+    private static void writeScope(JsonWriter out, Types.Scope scope) throws IOException {
+        if (scope == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("name").value(scope.name);
+        out.name("variablesReference").value(scope.variablesReference);
+        out.name("expensive").value(scope.expensive);
+        out.endObject();
+    }
+
+    private static void writeVariable(JsonWriter out, Types.Variable variable) throws IOException {
+        if (variable == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("name").value(variable.name);
+        out.name("value").value(variable.value);
+        out.name("type").value(variable.type);
+        out.name("variablesReference").value(variable.variablesReference);
+        out.name("namedVariables").value(variable.namedVariables);
+        out.name("indexedVariables").value(variable.indexedVariables);
+        out.name("evaluateName").value(variable.evaluateName);
+        out.endObject();
+    }
+
+    private static void writeThread(JsonWriter out, Types.Thread thread) throws IOException {
+        if (thread == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("id").value(thread.id);
+        out.name("name").value(thread.name);
+        out.endObject();
+    }
+
+    private static void writeBreakpoint(JsonWriter out, Types.Breakpoint breakpoint) throws IOException {
+        if (breakpoint == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("id").value(breakpoint.id);
+        out.name("verified").value(breakpoint.verified);
+        out.name("line").value(breakpoint.line);
+        out.name("message").value(breakpoint.message);
+        out.endObject();
+    }
+
+    private static void writeErrorResponseBody(JsonWriter out, Responses.ErrorResponseBody body, Gson gson)
+            throws IOException {
+        out.beginObject();
+        out.name("error");
+        writeMessage(out, body.error);
+        out.endObject();
+    }
+
+    private static void writeStackTraceResponseBody(JsonWriter out, Responses.StackTraceResponseBody body, Gson gson)
+            throws IOException {
+        out.beginObject();
+        if (body.stackFrames != null) {
+            out.name("stackFrames").beginArray();
+            for (Types.StackFrame frame : body.stackFrames) {
+                writeStackFrame(out, frame);
+            }
+            out.endArray();
+        }
+        out.name("totalFrames").value(body.totalFrames);
+        out.endObject();
+    }
+
+    private static void writeScopesResponseBody(JsonWriter out, Responses.ScopesResponseBody body, Gson gson)
+            throws IOException {
+        out.beginObject();
+        if (body.scopes != null) {
+            out.name("scopes").beginArray();
+            for (Types.Scope scope : body.scopes) {
+                writeScope(out, scope);
+            }
+            out.endArray();
+        }
+        out.endObject();
+    }
+
+    private static void writeVariablesResponseBody(JsonWriter out, Responses.VariablesResponseBody body, Gson gson)
+            throws IOException {
+        out.beginObject();
+        if (body.variables != null) {
+            out.name("variables").beginArray();
+            for (Types.Variable variable : body.variables) {
+                writeVariable(out, variable);
+            }
+            out.endArray();
+        }
+        out.endObject();
+    }
+
+    private static void writeThreadsResponseBody(JsonWriter out, Responses.ThreadsResponseBody body, Gson gson)
+            throws IOException {
+        out.beginObject();
+        if (body.threads != null) {
+            out.name("threads").beginArray();
+            for (Types.Thread thread : body.threads) {
+                writeThread(out, thread);
+            }
+            out.endArray();
+        }
+        out.endObject();
+    }
+
+    private static void writeEvaluateResponseBody(JsonWriter out, Responses.EvaluateResponseBody body, Gson gson)
+            throws IOException {
+        out.beginObject();
+        out.name("result").value(body.result);
+        out.name("variablesReference").value(body.variablesReference);
+        out.name("type").value(body.type);
+        out.name("indexedVariables").value(body.indexedVariables);
+        out.endObject();
+    }
+
+    private static void writeSetBreakpointsResponseBody(JsonWriter out, Responses.SetBreakpointsResponseBody body,
+            Gson gson) throws IOException {
+        out.beginObject();
+        if (body.breakpoints != null) {
+            out.name("breakpoints").beginArray();
+            for (Types.Breakpoint breakpoint : body.breakpoints) {
+                writeBreakpoint(out, breakpoint);
+            }
+            out.endArray();
+        }
+        out.endObject();
+    }
+}
@@ -13,6 +13,8 @@ package com.microsoft.java.debug.core.protocol;
 
 import java.util.Arrays;
 import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import com.google.gson.annotations.SerializedName;
 
@@ -64,6 +66,9 @@ public class Requests {
     public static class LaunchArguments extends LaunchBaseArguments {
         public String program = "";
         public boolean stopOnEntry;
+        public int previewSize; // The rows aliases are previewed with, 0 reads them in full.
+        public double sampleFraction; // The fraction of the inputs aliases are previewed over, 0 reads them in full.
+        public int sampleSeed;
     }
 
     public static class RunInTerminalRequestArguments extends Arguments {
@@ -283,6 +288,9 @@ public class Requests {
         REDEFINECLASSES("redefineClasses", RedefineClassesArguments.class),
         EXCEPTIONINFO("exceptionInfo", ExceptionInfoArguments.class), UNSUPPORTED("", Arguments.class);
 
+        private static final Map<String, Command> COMMANDS = Arrays.stream(Command.values())
+                .collect(Collectors.toMap(Command::getName, Function.identity()));
+
         private String command;
         private Class<? extends Arguments> argumentType;
 
@@ -312,14 +320,7 @@ public class Requests {
          * @return the Command type
          */
         public static Command parse(String command) {
-            Command[] found = Arrays.stream(Command.values()).filter(cmd -> {
-                return cmd.toString().equals(command);
-            }).toArray(Command[]::new);
-
-            if (found.length > 0) {
-                return found[0];
-            }
-            return UNSUPPORTED;
+            return COMMANDS.getOrDefault(command, UNSUPPORTED);
         }
     }
 }
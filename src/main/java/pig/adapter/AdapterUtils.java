@@ -24,8 +24,6 @@ import java.nio.file.InvalidPathException;
 import java.nio.file.Paths;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
@@ -37,13 +35,19 @@ import com.microsoft.java.debug.core.protocol.Responses;
 import com.microsoft.java.debug.core.protocol.Types;
 
 import org.apache.commons.lang3.StringUtils;
-import org.apache.pig.PigServer;
 import org.apache.pig.data.Tuple;
 
 public class AdapterUtils {
     private static final String OS_NAME = System.getProperty("os.name", "").toLowerCase();
     private static final Pattern ENCLOSING_CLASS_REGEX = Pattern.compile("^([^\\$]*)");
 
+    /**
+     * The prefix of the aliases the session defines for itself, they're kept out of
+     * the client's sight.
+     */
+    public static final String INTERNAL_ALIAS_PREFIX = "dbg__";
+    public static final String PREVIEW_ALIAS_PREFIX = INTERNAL_ALIAS_PREFIX + "preview__";
+
     /**
      * Check if the OS is windows or not.
      */
@@ -268,21 +272,26 @@ public class AdapterUtils {
     }
 
     /**
-     * Indicates that line isn't empty and isn't a comment.
+     * Renders the first rows of the alias, they're read through the cursor cache so
+     * paging through the alias afterwards doesn't read them again.
+     *
+     * @param rows the number of rows read from the preview alias of the alias
      */
-    public static boolean isQuery(String line) {
-        String trimmed = line.trim();
-        return !trimmed.isEmpty() && !trimmed.trim().startsWith("--");
-    }
-
-    public static List<Tuple> readValue(PigServer server, String alias) throws IOException {
-        Iterator<Tuple> iterator = server.openIterator(alias);
-
-        List<Tuple> tuples = new ArrayList<>();
-        while (iterator.hasNext()) {
-            tuples.add(iterator.next());
+    public static String previewRows(IDebugSession session, String alias, long rows) throws IOException {
+        ValueRenderer renderer = ValueRenderer.PREVIEW;
+        List<Tuple> firstRows = session.getCursorCache().read(session.getPigServer(),
+                session.getPreviewAlias(alias), 0, renderer.getMaxRows());
+        String preview = renderer.renderRows(firstRows.iterator(), rows);
+        if (session.getSampleFraction() > 0) {
+            preview = String.format("%s (sampled, %.2f%% of the input)", preview, session.getSampleFraction() * 100);
         }
+        if (session.getPreviewSize() > 0 && rows >= session.getPreviewSize()) {
+            preview = String.format("%s (first %,d rows)", preview, rows);
+        }
+        return preview;
+    }
 
-        return tuples;
+    public static boolean isInternalAlias(String alias) {
+        return alias.startsWith(INTERNAL_ALIAS_PREFIX);
     }
 }
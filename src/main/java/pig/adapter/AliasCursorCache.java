@@ -0,0 +1,309 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Microsoft Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Microsoft Corporation - initial API and implementation
+ *******************************************************************************/
+
+package pig.adapter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.apache.pig.PigServer;
+import org.apache.pig.data.Tuple;
+
+/**
+ * Keeps an open iterator per alias, so paging forward through an alias doesn't
+ * run the alias again for every page. Each cursor remembers its position and the
+ * last rows it has read, so a page overlapping the previous one is served too.
+ * An alias read to the end is handed to the {@link RelationCache}, as a
+ * {@link SpilledRelation} if it's too large for the heap, and is served from there
+ * until its definition changes.
+ *
+ * <p>Only the most recently used cursors are kept, an evicted cursor deletes what
+ * it has spilled. The cache has to be invalidated whenever an alias may have
+ * changed.
+ */
+public class AliasCursorCache {
+    private static final Logger logger = Logger.getLogger(AliasCursorCache.class.getName());
+
+    static final int MAX_CURSORS = 8;
+    static final int LOOKBACK_SIZE = 256;
+
+    private AliasLineage lineage;
+    private RelationCache relations;
+    private Map<String, Cursor> cursors = new LinkedHashMap<String, Cursor>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Cursor> eldest) {
+            if (size() > MAX_CURSORS) {
+                abandon(eldest.getValue());
+                return true;
+            }
+            return false;
+        }
+    };
+
+    public AliasCursorCache(AliasLineage lineage, RelationCache relations) {
+        this.lineage = lineage;
+        this.relations = relations;
+    }
+
+    /**
+     * Reads the rows [start, start + count) of the alias.
+     */
+    public synchronized List<Tuple> read(PigServer server, String alias, long start, int count) throws IOException {
+        List<Tuple> rows = this.relations.get(alias, this.lineage.getFingerprint(alias));
+        if (rows != null) {
+            int from = (int) Math.min(start, rows.size());
+            return new ArrayList<>(rows.subList(from, (int) Math.min((long) from + count, rows.size())));
+        }
+        return getCursor(alias).read(server, alias, start, count);
+    }
+
+    /**
+     * Counts the rows of the alias by reading its cursor to the end, so the rows
+     * are collected on the way and the alias isn't run again to read them.
+     */
+    public synchronized long count(PigServer server, String alias) throws IOException {
+        List<Tuple> rows = this.relations.get(alias, this.lineage.getFingerprint(alias));
+        if (rows != null) {
+            return rows.size();
+        }
+        return getCursor(alias).count(server, alias);
+    }
+
+    /**
+     * Iterates over all the rows of the alias, from the relation cache if they're
+     * there.
+     */
+    public synchronized Iterator<Tuple> iterator(PigServer server, String alias) throws IOException {
+        List<Tuple> rows = this.relations.get(alias, this.lineage.getFingerprint(alias));
+        return rows != null ? rows.iterator() : server.openIterator(alias);
+    }
+
+    /**
+     * Drops the cursors and the cached rows of aliases that have been defined again,
+     * or read from such an alias.
+     */
+    public synchronized void invalidate(Collection<String> aliases) {
+        aliases.forEach(alias -> abandon(this.cursors.remove(alias)));
+        this.relations.invalidate(aliases);
+    }
+
+    /**
+     * Drops the cursors, the cached rows stay as long as the aliases don't change.
+     */
+    public synchronized void clear() {
+        this.cursors.values().forEach(AliasCursorCache::abandon);
+        this.cursors.clear();
+    }
+
+    /**
+     * Stops reading an alias once the reading has been cancelled.
+     */
+    private static void checkInterrupted(String alias) throws InterruptedIOException {
+        if (Thread.interrupted()) {
+            throw new InterruptedIOException(String.format("Reading %s interrupted.", alias));
+        }
+    }
+
+    private static void abandon(Cursor cursor) {
+        if (cursor != null && cursor.collector != null) {
+            cursor.collector.abandon();
+        }
+    }
+
+    private Cursor getCursor(String alias) {
+        Cursor cursor = this.cursors.get(alias);
+        if (cursor == null) {
+            cursor = new Cursor();
+            this.cursors.put(alias, cursor);
+        }
+        return cursor;
+    }
+
+    /**
+     * Collects the rows of an alias read from the start. The rows on the heap are
+     * reserved in the relation cache's budget, and they're spilled to disk once they
+     * don't fit in an entry or in the budget, so all the cursors together stay within
+     * it. The rows are dropped once they don't fit in a spilled entry either.
+     */
+    private class Collector {
+        private String alias;
+        private Long fingerprint;
+        private List<Tuple> rows = new ArrayList<>();
+        private long bytes;
+        private long reserved;
+        private SpilledRelation.Writer spill;
+
+        Collector(String alias) {
+            this.alias = alias;
+            this.fingerprint = lineage.getFingerprint(alias);
+            if (this.fingerprint == null) {
+                // nothing can be cached for an alias without a fingerprint.
+                this.rows = null;
+            }
+        }
+
+        void add(Tuple tuple) {
+            try {
+                if (this.spill != null) {
+                    this.spill.write(tuple);
+                    if (this.spill.getDiskSize() > relations.getMaxSpillSize()) {
+                        logger.info(String.format("%s is too large to be spilled.", this.alias));
+                        abandon();
+                    }
+                } else if (this.rows != null) {
+                    this.rows.add(tuple);
+                    long size = tuple.getMemorySize();
+                    this.bytes += size;
+                    if (this.bytes <= relations.getMaxEntrySize() && relations.reserve(size)) {
+                        this.reserved += size;
+                    } else {
+                        this.spill = new SpilledRelation.Writer();
+                        for (Tuple row : this.rows) {
+                            this.spill.write(row);
+                        }
+                        this.rows = null;
+                        unreserve();
+                    }
+                }
+            } catch (IOException e) {
+                logger.error(e.getMessage(), e);
+                abandon();
+            }
+        }
+
+        void finish() {
+            if (this.spill != null) {
+                try {
+                    relations.put(this.alias, this.fingerprint, this.spill.finish(), 0);
+                    this.spill = null;
+                } catch (IOException e) {
+                    logger.error(e.getMessage(), e);
+                }
+            } else if (this.rows != null) {
+                unreserve();
+                relations.put(this.alias, this.fingerprint, this.rows, this.bytes);
+            }
+            abandon();
+        }
+
+        /**
+         * Stops collecting, the rows spilled so far are deleted.
+         */
+        void abandon() {
+            this.rows = null;
+            unreserve();
+            if (this.spill != null) {
+                this.spill.close();
+                this.spill = null;
+            }
+        }
+
+        private void unreserve() {
+            relations.unreserve(this.reserved);
+            this.reserved = 0;
+        }
+    }
+
+    private class Cursor {
+        private Iterator<Tuple> iterator;
+        private Collector collector;
+        /**
+         * The index of the row the iterator returns next.
+         */
+        private long position;
+        /**
+         * The rows [position - lookback.size(), position).
+         */
+        private ArrayDeque<Tuple> lookback = new ArrayDeque<>();
+        private long size = -1;
+
+        List<Tuple> read(PigServer server, String alias, long start, int count) throws IOException {
+            long lookbackStart = this.position - this.lookback.size();
+            if (this.iterator == null || start < lookbackStart) {
+                open(server, alias);
+                lookbackStart = 0;
+            }
+
+            List<Tuple> tuples = new ArrayList<>(Math.min(count, 1024));
+            if (start < this.position) {
+                long index = lookbackStart;
+                for (Tuple tuple : this.lookback) {
+                    if (index >= start && tuples.size() < count) {
+                        tuples.add(tuple);
+                    }
+                    index++;
+                }
+            }
+
+            while (this.position < start && this.iterator.hasNext()) {
+                checkInterrupted(alias);
+                next();
+            }
+            while (tuples.size() < count && this.iterator.hasNext()) {
+                tuples.add(next());
+            }
+            checkEnd();
+            return tuples;
+        }
+
+        long count(PigServer server, String alias) throws IOException {
+            if (this.size < 0) {
+                if (this.iterator == null) {
+                    open(server, alias);
+                }
+                while (this.iterator.hasNext()) {
+                    checkInterrupted(alias);
+                    next();
+                }
+                checkEnd();
+            }
+            return this.size;
+        }
+
+        private void open(PigServer server, String alias) throws IOException {
+            if (this.collector != null) {
+                this.collector.abandon();
+            }
+            this.iterator = server.openIterator(alias);
+            this.collector = new Collector(alias);
+            this.position = 0;
+            this.lookback.clear();
+        }
+
+        private void checkEnd() {
+            if (!this.iterator.hasNext()) {
+                this.size = this.position;
+                this.collector.finish();
+            }
+        }
+
+        private Tuple next() {
+            Tuple tuple = this.iterator.next();
+            this.position++;
+            if (this.lookback.size() == LOOKBACK_SIZE) {
+                this.lookback.removeFirst();
+            }
+            this.lookback.addLast(tuple);
+            this.collector.add(tuple);
+            return tuple;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Microsoft Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Microsoft Corporation - initial API and implementation
+ *******************************************************************************/
+
+package pig.adapter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Tracks the statement each alias is defined by and the aliases it reads from.
+ *
+ * <p>Every alias gets a fingerprint of its statement and the fingerprints of the
+ * aliases it depends on, taken when the alias is registered. An alias defined by the
+ * same statements again gets the same fingerprint, so what is cached for it stays
+ * valid.
+ */
+public class AliasLineage {
+    private static final Pattern ASSIGNMENT = Pattern.compile("^\\s*([A-Za-z][A-Za-z0-9_]*)\\s*=(?!=)");
+    private static final Pattern SPLIT = Pattern.compile("^\\s*split\\s+.*?\\binto\\b(.*)$",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern SPLIT_BRANCH = Pattern.compile("([A-Za-z][A-Za-z0-9_]*)\\s+(?:if|otherwise)\\b",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z][A-Za-z0-9_]*");
+    private static final Pattern QUOTED = Pattern.compile("'(?:[^'\\\\]|\\\\.)*'|`[^`]*`");
+    private static final Pattern LOAD = Pattern.compile("^\\s*[A-Za-z][A-Za-z0-9_]*\\s*=\\s*load\\b",
+            Pattern.CASE_INSENSITIVE);
+
+    private Map<String, Node> nodes = new HashMap<>();
+
+    private static class Node {
+        private String statement;
+        private Set<String> dependencies;
+        private long fingerprint;
+
+        Node(String statement, Set<String> dependencies, long fingerprint) {
+            this.statement = statement;
+            this.dependencies = dependencies;
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    /**
+     * Records the aliases defined by the statement.
+     *
+     * @return the aliases defined by the statement, empty if it doesn't define any
+     */
+    public synchronized Set<String> register(String statement) {
+        Set<String> defined = parseDefinedAliases(statement);
+        if (defined.isEmpty()) {
+            return defined;
+        }
+
+        Set<String> dependencies = new LinkedHashSet<>();
+        Matcher matcher = IDENTIFIER.matcher(QUOTED.matcher(statement).replaceAll("''"));
+        while (matcher.find()) {
+            String identifier = matcher.group();
+            // an alias may read its own previous definition, e.g. A = FILTER A BY ...
+            if (this.nodes.containsKey(identifier) && (!defined.contains(identifier)
+                    || matcher.start() > definitionEnd(statement))) {
+                dependencies.add(identifier);
+            }
+        }
+
+        Hasher hasher = Hashing.murmur3_128().newHasher().putString(statement.trim(), StandardCharsets.UTF_8);
+        for (String dependency : dependencies) {
+            hasher.putLong(this.nodes.get(dependency).fingerprint);
+        }
+        long fingerprint = hasher.hash().asLong();
+
+        for (String alias : defined) {
+            this.nodes.put(alias, new Node(statement, dependencies, fingerprint ^ alias.hashCode()));
+        }
+        return defined;
+    }
+
+    /**
+     * Returns the fingerprint of the alias, or null if the alias is unknown.
+     */
+    public synchronized Long getFingerprint(String alias) {
+        Node node = this.nodes.get(alias);
+        return node == null ? null : node.fingerprint;
+    }
+
+    /**
+     * Returns the statement the alias is defined by, or null if the alias is unknown.
+     */
+    public synchronized String getStatement(String alias) {
+        Node node = this.nodes.get(alias);
+        return node == null ? null : node.statement;
+    }
+
+    /**
+     * Tells whether the alias is defined by a LOAD statement.
+     */
+    public synchronized boolean isLoad(String alias) {
+        Node node = this.nodes.get(alias);
+        return node != null && LOAD.matcher(node.statement).find();
+    }
+
+    /**
+     * Returns the alias and all the aliases it reads from, directly or not, every
+     * alias coming after the aliases it reads from.
+     */
+    public synchronized List<String> getUpstream(String alias) {
+        List<String> upstream = new ArrayList<>();
+        addUpstream(alias, new LinkedHashSet<>(), upstream);
+        return upstream;
+    }
+
+    private void addUpstream(String alias, Set<String> visited, List<String> upstream) {
+        Node node = this.nodes.get(alias);
+        if (node == null || !visited.add(alias)) {
+            return;
+        }
+        for (String dependency : node.dependencies) {
+            addUpstream(dependency, visited, upstream);
+        }
+        upstream.add(alias);
+    }
+
+    /**
+     * Returns the given aliases and all the aliases reading from them, directly or
+     * not.
+     */
+    public synchronized Set<String> getDownstream(Set<String> aliases) {
+        Set<String> downstream = new LinkedHashSet<>(aliases);
+        ArrayDeque<String> queue = new ArrayDeque<>(aliases);
+        while (!queue.isEmpty()) {
+            String alias = queue.poll();
+            this.nodes.forEach((name, node) -> {
+                if (node.dependencies.contains(alias) && downstream.add(name)) {
+                    queue.add(name);
+                }
+            });
+        }
+        return downstream;
+    }
+
+    static Set<String> parseDefinedAliases(String statement) {
+        Matcher assignment = ASSIGNMENT.matcher(statement);
+        if (assignment.find()) {
+            return Collections.singleton(assignment.group(1));
+        }
+
+        Matcher split = SPLIT.matcher(statement);
+        if (split.find()) {
+            Set<String> defined = new LinkedHashSet<>();
+            Matcher branch = SPLIT_BRANCH.matcher(split.group(1));
+            while (branch.find()) {
+                defined.add(branch.group(1));
+            }
+            return defined;
+        }
+        return Collections.emptySet();
+    }
+
+    private static int definitionEnd(String statement) {
+        Matcher assignment = ASSIGNMENT.matcher(statement);
+        return assignment.find() ? assignment.end() : Integer.MAX_VALUE;
+    }
+}
@@ -0,0 +1,295 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Microsoft Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Microsoft Corporation - initial API and implementation
+ *******************************************************************************/
+
+package pig.adapter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+
+import org.apache.log4j.Logger;
+import org.apache.pig.PigServer;
+import org.apache.pig.backend.executionengine.ExecJob;
+
+/**
+ * Defines a sampled copy of an alias: the inputs it loads are sampled, and the
+ * statements between them and the alias are defined again over the samples.
+ *
+ * <p>The sample of an input is stored to a temporary directory the first time it's
+ * needed and loaded back from there, so the aliases previewed afterwards read the
+ * same sample instead of the whole input. A sample is taken again only when the
+ * LOAD statement of the input changes, and the directories are deleted when the
+ * sampler is closed.
+ */
+public class AliasSampler {
+    public static final String SAMPLE_ALIAS_PREFIX = AdapterUtils.INTERNAL_ALIAS_PREFIX + "sample__";
+    private static final String SAMPLE_FILTER = AdapterUtils.INTERNAL_ALIAS_PREFIX + "sampled";
+    private static final Pattern TOKEN = Pattern.compile("'(?:[^'\\\\]|\\\\.)*'|`[^`]*`|[A-Za-z][A-Za-z0-9_]*|::|\\S");
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z][A-Za-z0-9_]*");
+    private static final String OPENING = "({[";
+    private static final String CLOSING = ")}]";
+    /**
+     * The operators followed by the relation they read.
+     */
+    private static final Set<String> RELATION_OPERATORS = ImmutableSet.of("filter", "foreach", "group", "cogroup",
+            "join", "cross", "union", "distinct", "order", "limit", "sample", "split", "store", "rank", "cube",
+            "stream", "assert");
+    /**
+     * The operators reading a list of relations, separated by commas.
+     */
+    private static final Set<String> MULTIPLE_INPUT_OPERATORS = ImmutableSet.of("group", "cogroup", "join", "cross",
+            "union");
+
+    private static final Logger logger = Logger.getLogger(AliasSampler.class.getName());
+
+    private AliasLineage lineage;
+    private Registrar registrar;
+    private double fraction;
+    private int seed;
+    private boolean filterDefined;
+    private Map<String, Long> fingerprints = new HashMap<>();
+    private Map<String, Path> samples = new HashMap<>();
+
+    /**
+     * Registers the statements of the samples with the Pig server.
+     */
+    public interface Registrar {
+        void register(String statement) throws IOException;
+    }
+
+    /**
+     * @param fraction the fraction of the rows of every input that is kept
+     * @param seed     the seed the rows are chosen by
+     */
+    public AliasSampler(AliasLineage lineage, Registrar registrar, double fraction, int seed) {
+        this.lineage = lineage;
+        this.registrar = registrar;
+        this.fraction = fraction;
+        this.seed = seed;
+    }
+
+    public double getFraction() {
+        return this.fraction;
+    }
+
+    /**
+     * Returns the sampled copy of the alias, it's defined again if the alias or the
+     * aliases it reads from have changed since.
+     */
+    public synchronized String sample(PigServer server, String alias) throws IOException {
+        if (!this.filterDefined) {
+            this.registrar.register(String.format("DEFINE %s %s('%s', '%d');", SAMPLE_FILTER,
+                    SampleFilter.class.getName(), Double.toString(this.fraction), this.seed));
+            this.filterDefined = true;
+        }
+
+        List<String> upstream = this.lineage.getUpstream(alias);
+        for (String name : upstream) {
+            Long fingerprint = this.lineage.getFingerprint(name);
+            if (fingerprint.equals(this.fingerprints.get(name))) {
+                continue;
+            }
+            if (this.lineage.isLoad(name)) {
+                sampleInput(server, name);
+            } else {
+                this.registrar.register(rename(this.lineage.getStatement(name), upstream));
+            }
+            this.fingerprints.put(name, fingerprint);
+        }
+        return SAMPLE_ALIAS_PREFIX + alias;
+    }
+
+    /**
+     * Stores the sample of the input with its schema, and defines the sampled alias
+     * as the loading of what was stored.
+     */
+    private void sampleInput(PigServer server, String alias) throws IOException {
+        String filtered = SAMPLE_ALIAS_PREFIX + "filter__" + alias;
+        this.registrar.register(String.format("%s = FILTER %s BY %s(*);", filtered, alias, SAMPLE_FILTER));
+
+        Path sample = Files.createTempDirectory(SpilledRelation.getSpillDir(), "pig-debug-sample-");
+        release(this.samples.put(alias, sample));
+        String location = sample.resolve("data").toUri().toString();
+        ExecJob job = server.store(filtered, location, "PigStorage('\\t', '-schema')");
+        if (job.getStatus() == ExecJob.JOB_STATUS.FAILED) {
+            throw new IOException(String.format("Cannot sample %s.", alias), job.getException());
+        }
+
+        this.registrar.register(String.format("%s%s = LOAD '%s' USING PigStorage('\\t', '-schema');",
+                SAMPLE_ALIAS_PREFIX, alias, location));
+    }
+
+    /**
+     * Renames the aliases of the statement to their sampled copies. Only the names
+     * in the positions of a relation are renamed: the alias defined, the inputs of
+     * the operator and the prefixes of disambiguated fields, e.g. A in A::x. A field
+     * that shares its name with an alias keeps it, unless it's the bag a GROUP named
+     * after the alias, which is renamed along with the alias.
+     */
+    private String rename(String statement, List<String> aliases) {
+        Set<String> names = new HashSet<>(aliases);
+        List<Token> tokens = tokenize(statement);
+        Set<String> bags = getGroupedRelations(tokens);
+
+        StringBuilder renamed = new StringBuilder();
+        int end = 0;
+        for (Token token : tokens) {
+            if (names.contains(token.text) && (token.relation || token.field && bags.contains(token.text))) {
+                renamed.append(statement, end, token.start).append(SAMPLE_ALIAS_PREFIX).append(token.text);
+                end = token.start + token.text.length();
+            }
+        }
+        return renamed.append(statement, end, statement.length()).toString();
+    }
+
+    /**
+     * Returns the relations grouped by the statement defining the input of a FOREACH
+     * or a FILTER, the input has a bag named after each of them.
+     */
+    private Set<String> getGroupedRelations(List<Token> tokens) {
+        String operator = getOperator(tokens);
+        if (!"foreach".equals(operator) && !"filter".equals(operator)) {
+            return Collections.emptySet();
+        }
+        String input = tokens.stream().filter(token -> token.relation && !token.defined).findFirst()
+                .map(token -> this.lineage.getStatement(token.text)).orElse(null);
+        if (input == null) {
+            return Collections.emptySet();
+        }
+
+        List<Token> inputTokens = tokenize(input);
+        String inputOperator = getOperator(inputTokens);
+        if (!"group".equals(inputOperator) && !"cogroup".equals(inputOperator)) {
+            return Collections.emptySet();
+        }
+        return inputTokens.stream().filter(token -> token.relation && !token.defined).map(token -> token.text)
+                .collect(Collectors.toSet());
+    }
+
+    private static String getOperator(List<Token> tokens) {
+        int index = tokens.size() > 1 && "=".equals(tokens.get(1).text) ? 2 : 0;
+        return index < tokens.size() ? tokens.get(index).text.toLowerCase() : null;
+    }
+
+    /**
+     * Splits the statement into tokens and tells what the names are: the alias it
+     * defines, a relation, or a field of the input. The names in a schema, after a
+     * dereference and in the operators nested in a FOREACH are neither.
+     */
+    private static List<Token> tokenize(String statement) {
+        List<Token> tokens = new ArrayList<>();
+        Matcher matcher = TOKEN.matcher(statement);
+        while (matcher.find()) {
+            tokens.add(new Token(matcher.group(), matcher.start()));
+        }
+
+        String operator = getOperator(tokens);
+        boolean multipleInputs = MULTIPLE_INPUT_OPERATORS.contains(operator);
+        int depth = 0;
+        int schemaDepth = -1;
+        int blockDepth = 0;
+        boolean nestedOperator = false;
+        for (int i = 0; i < tokens.size(); i++) {
+            Token token = tokens.get(i);
+            String previous = i > 0 ? tokens.get(i - 1).text.toLowerCase() : "";
+            String next = i + 1 < tokens.size() ? tokens.get(i + 1).text : "";
+            if (schemaDepth < 0 && ("{".equals(token.text) || blockDepth > 0 && ";".equals(token.text))) {
+                // the fields of an operator nested in a FOREACH are those of its own input.
+                nestedOperator = i + 2 < tokens.size() && "=".equals(tokens.get(i + 2).text);
+            }
+            if ("{".equals(token.text) && schemaDepth < 0) {
+                blockDepth++;
+            } else if ("}".equals(token.text) && schemaDepth < 0) {
+                blockDepth--;
+                nestedOperator = false;
+            }
+            if (OPENING.contains(token.text)) {
+                if ("as".equals(previous) && schemaDepth < 0) {
+                    schemaDepth = depth;
+                }
+                depth++;
+                continue;
+            } else if (CLOSING.contains(token.text)) {
+                depth--;
+                if (depth == schemaDepth) {
+                    schemaDepth = -1;
+                }
+                continue;
+            }
+            if (!IDENTIFIER.matcher(token.text).matches() || schemaDepth >= 0 || "as".equals(previous)
+                    || ".".equals(previous) || "::".equals(previous)) {
+                continue;
+            }
+
+            if (i == 0 && "=".equals(next)) {
+                token.relation = true;
+                token.defined = true;
+            } else if ("split".equals(operator) && i > 2 && next.matches("(?i)if|otherwise")) {
+                token.relation = true;
+                token.defined = true;
+            } else if ("::".equals(next) || RELATION_OPERATORS.contains(previous)
+                    || "onschema".equals(previous)
+                    || multipleInputs && depth == 0 && ",".equals(previous)) {
+                token.relation = true;
+            } else if (!nestedOperator) {
+                token.field = true;
+            }
+        }
+        return tokens;
+    }
+
+    private static class Token {
+        private String text;
+        private int start;
+        private boolean relation;
+        private boolean defined;
+        private boolean field;
+
+        Token(String text, int start) {
+            this.text = text;
+            this.start = start;
+        }
+    }
+
+    /**
+     * Deletes the stored samples.
+     */
+    public synchronized void close() {
+        this.samples.values().forEach(AliasSampler::release);
+        this.samples.clear();
+        this.fingerprints.clear();
+    }
+
+    private static void release(Path sample) {
+        if (sample == null) {
+            return;
+        }
+        try {
+            MoreFiles.deleteRecursively(sample, RecursiveDeleteOption.ALLOW_INSECURE);
+        } catch (IOException e) {
+            logger.warn(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Microsoft Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Microsoft Corporation - initial API and implementation
+ *******************************************************************************/
+
+package pig.adapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+
+/**
+ * The number of rows of an alias and, for every field, the number of nulls, the
+ * smallest and largest values and the average of the numbers. The rows are added
+ * one at a time as they're read, none of them is kept.
+ */
+public class AliasStatistics {
+    private List<String> names;
+    private long rows;
+    private List<FieldStatistics> fields = new ArrayList<>();
+
+    /**
+     * @param names the names of the fields, the fields past them are named by
+     *              their position
+     */
+    public AliasStatistics(List<String> names) {
+        this.names = names;
+    }
+
+    public void add(Tuple row) throws ExecException {
+        this.rows++;
+        for (int i = 0; i < row.size(); i++) {
+            if (i == this.fields.size()) {
+                // the rows before had no such field, it was null for all of them.
+                this.fields.add(new FieldStatistics(i < this.names.size() ? this.names.get(i) : "$" + i,
+                        this.rows - 1));
+            }
+            this.fields.get(i).add(row.get(i));
+        }
+        for (int i = row.size(); i < this.fields.size(); i++) {
+            this.fields.get(i).add(null);
+        }
+    }
+
+    public long getRows() {
+        return this.rows;
+    }
+
+    public List<FieldStatistics> getFields() {
+        return Collections.unmodifiableList(this.fields);
+    }
+
+    public static class FieldStatistics {
+        private String name;
+        private long nulls;
+        private Object min;
+        private Object max;
+        private double sum;
+        private long numbers;
+
+        FieldStatistics(String name, long nulls) {
+            this.name = name;
+            this.nulls = nulls;
+        }
+
+        void add(Object value) {
+            if (value == null) {
+                this.nulls++;
+                return;
+            }
+            if (value instanceof Number) {
+                this.sum += ((Number) value).doubleValue();
+                this.numbers++;
+            }
+            // tuples, bags and maps have no meaningful order.
+            if (DataType.isAtomic(value)) {
+                if (this.min == null || DataType.compare(value, this.min) < 0) {
+                    this.min = value;
+                }
+                if (this.max == null || DataType.compare(value, this.max) > 0) {
+                    this.max = value;
+                }
+            }
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public long getNulls() {
+            return this.nulls;
+        }
+
+        public Object getMin() {
+            return this.min;
+        }
+
+        public Object getMax() {
+            return this.max;
+        }
+
+        /**
+         * The average of the numbers, or null if there are none.
+         */
+        public Double getAverage() {
+            return this.numbers == 0 ? null : this.sum / this.numbers;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder(String.format("nulls %,d", this.nulls));
+            if (this.min != null) {
+                builder.append(", min ").append(ValueRenderer.PREVIEW.render(this.min));
+                builder.append(", max ").append(ValueRenderer.PREVIEW.render(this.max));
+            }
+            if (this.numbers > 0) {
+                builder.append(", avg ").append(getAverage());
+            }
+            return builder.toString();
+        }
+    }
+}
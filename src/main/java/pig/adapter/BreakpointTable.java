@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Microsoft Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Microsoft Corporation - initial API and implementation
+ *******************************************************************************/
+
+package pig.adapter;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The lines with a breakpoint, a bit set per source. A table is never modified,
+ * setting the breakpoints of a source gives a new table, so a table can be read
+ * from any thread while the breakpoints are being changed.
+ */
+public final class BreakpointTable {
+    public static final BreakpointTable EMPTY = new BreakpointTable(new HashMap<>());
+
+    private final Map<String, BitSet> sources;
+
+    private BreakpointTable(Map<String, BitSet> sources) {
+        this.sources = sources;
+    }
+
+    /**
+     * Returns a table with the breakpoints of the source replaced by the lines.
+     */
+    public BreakpointTable with(String source, int[] lines) {
+        Map<String, BitSet> sources = new HashMap<>(this.sources);
+        BitSet bits = new BitSet();
+        for (int line : lines) {
+            if (line > 0) {
+                bits.set(line);
+            }
+        }
+        if (bits.isEmpty()) {
+            sources.remove(source);
+        } else {
+            sources.put(source, bits);
+        }
+        return new BreakpointTable(sources);
+    }
+
+    /**
+     * Returns the first line from the line on with a breakpoint, or -1 if there's
+     * none.
+     */
+    public int next(String source, int line) {
+        BitSet bits = this.sources.get(source);
+        return bits == null ? -1 : bits.nextSetBit(Math.max(line, 0));
+    }
+}
@@ -11,9 +11,11 @@
 package pig.adapter;
 
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -41,6 +43,20 @@ import pig.adapter.handler.VariablesRequestHandler;
 public class DebugAdapter implements IDebugAdapter {
     private static final Logger logger = Logger.getLogger(DebugAdapter.class.getName());
 
+    /**
+     * Commands that only inspect the stopped session. EVALUATE may register a query,
+     * but it doesn't move the execution and Pig access is serialized by the session's
+     * Pig lock, so it's safe to run it next to the others.
+     */
+    private static final Set<Command> READ_ONLY_COMMANDS = EnumSet.of(Command.THREADS, Command.STACKTRACE,
+            Command.SCOPES, Command.VARIABLES, Command.SOURCE, Command.EVALUATE);
+
+    /**
+     * Commands that cancel the Pig work in flight, including a long read of the
+     * read-only commands.
+     */
+    private static final Set<Command> IMMEDIATE_COMMANDS = EnumSet.of(Command.PAUSE);
+
     private IDebugAdapterContext debugContext = null;
     private Map<Command, List<IDebugRequestHandler>> requestHandlersForDebug = null;
     private Map<Command, List<IDebugRequestHandler>> requestHandlersForNoDebug = null;
@@ -63,7 +79,8 @@ public class DebugAdapter implements IDebugAdapter {
         response.success = true;
 
         Command command = Command.parse(request.command);
-        Arguments cmdArgs = JsonUtils.fromJson(request.arguments, command.getArgumentType());
+        Arguments cmdArgs = request.typedArguments != null ? request.typedArguments
+                : JsonUtils.fromJson(request.arguments, command.getArgumentType());
 
         if (debugContext.isPigServerTerminated() && command != Command.DISCONNECT) {
             return CompletableFuture.completedFuture(response);
@@ -85,6 +102,24 @@ public class DebugAdapter implements IDebugAdapter {
         }
     }
 
+    @Override
+    public boolean isReadOnly(Command command) {
+        return READ_ONLY_COMMANDS.contains(command);
+    }
+
+    @Override
+    public boolean isImmediate(Command command) {
+        return IMMEDIATE_COMMANDS.contains(command);
+    }
+
+    @Override
+    public void close() {
+        IDebugSession session = debugContext.getDebugSession();
+        if (session != null) {
+            session.terminate();
+        }
+    }
+
     private void initialize() {
         // Register request handlers.
         // When there are multiple handlers registered for the same request, follow the rule "first register, first execute".
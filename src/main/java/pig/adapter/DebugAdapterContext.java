@@ -18,6 +18,7 @@ import com.microsoft.java.debug.core.protocol.Requests.StepFilters;
 
 public class DebugAdapterContext implements IDebugAdapterContext {
     private IProtocolServer server;
+    private OutputEventPipeline outputPipeline;
 
     private IDebugSession session;
     private boolean debuggerLinesStartAt1 = true;
@@ -26,6 +27,7 @@ public class DebugAdapterContext implements IDebugAdapterContext {
     private boolean clientColumnsStartAt1 = true;
     private boolean clientPathsAreUri = false;
     private boolean supportsRunInTerminalRequest;
+    private boolean supportsVariablePaging;
     private boolean isAttached = false;
     private Charset debuggeeEncoding;
     private transient boolean pigServerTerminated;
@@ -34,6 +36,7 @@ public class DebugAdapterContext implements IDebugAdapterContext {
 
     public DebugAdapterContext(IProtocolServer server) {
         this.server = server;
+        this.outputPipeline = new OutputEventPipeline(server);
     }
 
     @Override
@@ -41,6 +44,11 @@ public class DebugAdapterContext implements IDebugAdapterContext {
         return server;
     }
 
+    @Override
+    public OutputEventPipeline getOutputPipeline() {
+        return outputPipeline;
+    }
+
     @Override
     public boolean isDebuggerLinesStartAt1() {
         return debuggerLinesStartAt1;
@@ -99,6 +107,16 @@ public class DebugAdapterContext implements IDebugAdapterContext {
         return supportsRunInTerminalRequest;
     }
 
+    @Override
+    public void setSupportsVariablePaging(boolean supportsVariablePaging) {
+        this.supportsVariablePaging = supportsVariablePaging;
+    }
+
+    @Override
+    public boolean supportsVariablePaging() {
+        return supportsVariablePaging;
+    }
+
     @Override
     public boolean isAttached() {
         return isAttached;
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Microsoft Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Microsoft Corporation - initial API and implementation
+ *******************************************************************************/
+
+package pig.adapter;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import org.apache.pig.ExecType;
+import org.apache.pig.PigServer;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.impl.logicalLayer.FrontendException;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+import org.apache.pig.newplan.Operator;
+import org.apache.pig.newplan.logical.Util;
+import org.apache.pig.newplan.logical.relational.LogicalPlan;
+import org.apache.pig.newplan.logical.relational.LogicalRelationalOperator;
+import org.apache.pig.newplan.logical.relational.LogicalSchema;
+import org.apache.pig.parser.ParserException;
+import org.apache.pig.parser.QueryParserDriver;
+
+/**
+ * A Pig server that gives the schema of an alias without printing it. dumpSchema
+ * prints to stdout, which is the channel of the protocol in stdio mode.
+ *
+ * <p>The server keeps the script it has registered, and the schema is read from
+ * the alias's operator in a logical plan built from that script.
+ */
+public class DebugPigServer extends PigServer {
+    private static final String SCHEMA_SCOPE = "debug-schema";
+    /**
+     * The error code of Pig's "Error during parsing".
+     */
+    private static final int PARSE_ERROR_CODE = 1000;
+
+    private StringBuilder script = new StringBuilder();
+
+    public DebugPigServer(ExecType execType) throws ExecException {
+        super(execType);
+    }
+
+    /**
+     * Registers the query and keeps it in the script, unless Pig couldn't parse it,
+     * in which case Pig has discarded it too.
+     */
+    @Override
+    public void registerQuery(String query) throws IOException {
+        try {
+            super.registerQuery(query);
+        } catch (IOException e) {
+            if (!isParseFailure(e)) {
+                this.script.append(query).append('\n');
+            }
+            throw e;
+        }
+        this.script.append(query).append('\n');
+    }
+
+    /**
+     * Returns the schema of the alias from its logical plan, or null if the schema
+     * is unknown.
+     */
+    public Schema getSchema(String alias) throws IOException {
+        QueryParserDriver parser = new QueryParserDriver(getPigContext(), SCHEMA_SCOPE, new HashMap<>());
+        LogicalPlan plan = parser.parse(this.script.toString());
+
+        // an alias defined again is the last operator with its name
+        LogicalRelationalOperator operator = null;
+        for (Iterator<Operator> operators = plan.getOperators(); operators.hasNext();) {
+            Operator candidate = operators.next();
+            if (candidate instanceof LogicalRelationalOperator
+                    && alias.equals(((LogicalRelationalOperator) candidate).getAlias())) {
+                operator = (LogicalRelationalOperator) candidate;
+            }
+        }
+        if (operator == null) {
+            throw new IOException(String.format("Unknown alias %s.", alias));
+        }
+
+        LogicalSchema schema = operator.getSchema();
+        return schema == null ? null : Util.translateSchema(schema);
+    }
+
+    /**
+     * Tells whether Pig failed to parse the query rather than to run it.
+     */
+    static boolean isParseFailure(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ParserException || cause instanceof FrontendException
+                    && ((FrontendException) cause).getErrorCode() == PARSE_ERROR_CODE) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Microsoft Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Microsoft Corporation - initial API and implementation
+ *******************************************************************************/
+
+package pig.adapter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.apache.log4j.Logger;
+import org.apache.pig.ExecType;
+import org.apache.pig.PigServer;
+
+/**
+ * Listens on a local port and serves every accepted connection with its own
+ * {@link ProtocolServer}. Unlike the stdio mode the JVM outlives a debug
+ * session, so Pig and Hadoop classes are loaded once for all of them.
+ */
+public class DebugServer implements Runnable, Closeable {
+    private static final Logger logger = Logger.getLogger(DebugServer.class.getName());
+
+    private ServerSocketChannel serverChannel;
+    private ExecutorService sessions = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("debug-session-%d").build());
+
+    /**
+     * Binds the server to the given port of the loopback interface.
+     *
+     * @param port the port, or 0 to pick a free one
+     */
+    public DebugServer(int port) throws IOException {
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) this.serverChannel.getLocalAddress()).getPort();
+    }
+
+    @Override
+    public void run() {
+        sessions.execute(this::warmUp);
+
+        while (this.serverChannel.isOpen()) {
+            SocketChannel channel;
+            try {
+                channel = this.serverChannel.accept();
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            } catch (AsynchronousCloseException e) {
+                break;
+            } catch (IOException e) {
+                logger.error(e.getMessage(), e);
+                continue;
+            }
+
+            sessions.execute(() -> serve(channel));
+        }
+    }
+
+    private void serve(SocketChannel channel) {
+        try {
+            new ProtocolServer(channel).run();
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.error(e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Creates and shuts down a throwaway local Pig server, so the first session
+     * doesn't pay for loading the Pig and Hadoop classes.
+     */
+    private void warmUp() {
+        try {
+            new PigServer(ExecType.LOCAL).shutdown();
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.serverChannel.close();
+        this.sessions.shutdownNow();
+    }
+}
@@ -13,11 +13,18 @@ package pig.adapter;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.Semaphore;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
 
 import com.microsoft.java.debug.core.protocol.Events;
 import com.microsoft.java.debug.core.protocol.Events.DebugEvent;
@@ -27,43 +34,68 @@ import org.apache.log4j.Logger;
 import org.apache.pig.ExecType;
 import org.apache.pig.PigServer;
 import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
 
 public class DebugSession implements IDebugSession {
     private static final Logger logger = Logger.getLogger(DebugSession.class.getName());
 
     private List<IDebugSessionObserver> observers;
-    private PigServer server;
+    private DebugPigServer server;
+    private PigLock pigLock = new PigLock();
+    private AliasLineage lineage = new AliasLineage();
+    private RelationCache relationCache = new RelationCache();
+    private SchemaCache schemas = new SchemaCache(this.lineage);
+    private AliasCursorCache cursorCache = new AliasCursorCache(lineage, relationCache);
+    private VariableHandles variableHandles = new VariableHandles();
+    private StatisticsCache statistics = new StatisticsCache(this, this.lineage);
+    private Map<String, Long> previews = new HashMap<>();
+    private int previewSize;
+    private AliasSampler sampler;
+    private String lastAlias;
     private boolean stopOnEntry;
-    private List<Integer> breakpoints = new CopyOnWriteArrayList<>();
+    private volatile BreakpointTable breakpoints = BreakpointTable.EMPTY;
     private AtomicInteger currentLine = new AtomicInteger(1);
-    private AtomicBoolean stepAction = new AtomicBoolean();
+    private AtomicBoolean terminated = new AtomicBoolean();
     private DataProcessing dataProcessing;
     private IFileContext fileContext;
+    private StatementIndex statements;
 
     public DebugSession(boolean stopOnEntry, String program) throws ExecException {
         this.fileContext = new DebugFileContext();
         this.fileContext.setFile(program);
+        this.statements = StatementIndex.parse(this.fileContext.getContent());
+        if (this.statements.size() > 0) {
+            this.currentLine.set(this.statements.get(0).getStartLine());
+        }
 
         this.dataProcessing = new DataProcessing();
-        this.server = new PigServer(ExecType.LOCAL);
+        this.server = new DebugPigServer(ExecType.LOCAL);
         this.stopOnEntry = stopOnEntry;
         this.observers = new ArrayList<>();
     }
 
     @Override
     public void start() {
-        this.dataProcessing.acquireLock();
-        this.dataProcessing.start();
-
         if (this.stopOnEntry) {
+            this.dataProcessing.state = ExecutionState.STOPPED;
+            this.dataProcessing.start();
             this.notify(new Events.StoppedEvent("pause", 1, true));
+        } else if (this.statements.size() > 0 && hasBreakpoint(this.statements.get(0))) {
+            this.dataProcessing.state = ExecutionState.STOPPED;
+            this.dataProcessing.start();
+            this.notify(new Events.StoppedEvent("breakpoint", 1, true));
         } else {
-            this.dataProcessing.releaseLock();
+            this.dataProcessing.start();
         }
     }
 
     @Override
     public void terminate() {
+        if (!this.terminated.compareAndSet(false, true)) {
+            return;
+        }
+        this.statistics.close();
+        this.dataProcessing.submit(new ExecutionCommand(ExecutionCommand.Kind.TERMINATE));
         this.dataProcessing.interrupt();
         try {
             this.dataProcessing.join();
@@ -72,6 +104,13 @@ public class DebugSession implements IDebugSession {
         }
         this.server.shutdown();
         this.observers.clear();
+        logger.info(this.relationCache);
+        this.cursorCache.clear();
+        this.relationCache.clear();
+        this.schemas.clear();
+        if (this.sampler != null) {
+            this.sampler.close();
+        }
     }
 
     @Override
@@ -79,6 +118,169 @@ public class DebugSession implements IDebugSession {
         return this.server;
     }
 
+    @Override
+    public Lock getPigLock() {
+        return this.pigLock;
+    }
+
+    @Override
+    public void registerQuery(String query) throws IOException {
+        this.pigLock.lock();
+        try {
+            this.server.registerQuery(query);
+            this.lastAlias = this.server.getLastRel();
+            invalidate(this.lineage.register(query));
+        } finally {
+            this.pigLock.unlock();
+        }
+    }
+
+    /**
+     * Registers the statements with a single query. If Pig can't parse it, it
+     * discards all of them, so they're registered one at a time for the ones before
+     * the faulty statement to still be, and its error is reported. Any other failure,
+     * e.g. of a job, leaves the statements registered and is reported, they aren't
+     * run again. Neither is a cancelled span, the caller registers all of it again on
+     * resume.
+     *
+     * @return false if the work was cancelled by a pause
+     */
+    private boolean registerStatements(List<StatementIndex.Statement> span) {
+        this.pigLock.lock();
+        try {
+            if (span.size() > 1) {
+                try {
+                    this.server.registerQuery(span.stream().map(StatementIndex.Statement::getText)
+                            .collect(Collectors.joining("\n")));
+                    this.lastAlias = this.server.getLastRel();
+                    span.forEach(statement -> invalidate(this.lineage.register(statement.getText())));
+                    return !this.pigLock.isCancelled();
+                } catch (IOException e) {
+                    if (this.pigLock.isCancelled() || !DebugPigServer.isParseFailure(e)) {
+                        this.lastAlias = this.server.getLastRel();
+                        span.forEach(statement -> invalidate(this.lineage.register(statement.getText())));
+                        if (!this.pigLock.isCancelled()) {
+                            notify(new Events.OutputEvent(Category.stderr, e.getMessage() + "\n"));
+                        }
+                        return !this.pigLock.isCancelled();
+                    }
+                    logger.debug(String.format("Registering statements %d to %d one at a time: %s",
+                            span.get(0).getIndex(), span.get(span.size() - 1).getIndex(), e.getMessage()));
+                }
+            }
+
+            for (StatementIndex.Statement statement : span) {
+                try {
+                    registerQuery(statement.getText());
+                } catch (IOException e) {
+                    notify(new Events.OutputEvent(Category.stderr, e.getMessage() + "\n"));
+                }
+            }
+            return !this.pigLock.isCancelled();
+        } finally {
+            this.pigLock.unlock();
+        }
+    }
+
+    @Override
+    public String getLastAlias() {
+        return this.lastAlias;
+    }
+
+    @Override
+    public void setPreviewSize(int previewSize) {
+        this.previewSize = previewSize;
+    }
+
+    @Override
+    public int getPreviewSize() {
+        return this.previewSize;
+    }
+
+    @Override
+    public void setSampling(double fraction, int seed) {
+        this.sampler = fraction > 0 && fraction < 1
+                ? new AliasSampler(this.lineage, this::registerInternal, fraction, seed)
+                : null;
+    }
+
+    @Override
+    public double getSampleFraction() {
+        return this.sampler == null ? 0 : this.sampler.getFraction();
+    }
+
+    @Override
+    public String getPreviewAlias(String alias) throws IOException {
+        if (this.previewSize <= 0 && this.sampler == null) {
+            return alias;
+        }
+
+        this.pigLock.lock();
+        try {
+            String source = this.sampler == null ? alias : this.sampler.sample(this.server, alias);
+            if (this.previewSize <= 0) {
+                return source;
+            }
+
+            String preview = AdapterUtils.PREVIEW_ALIAS_PREFIX + alias;
+            Long fingerprint = this.lineage.getFingerprint(source);
+            if (fingerprint == null || !fingerprint.equals(this.previews.get(alias))) {
+                registerInternal(String.format("%s = LIMIT %s %d;", preview, source, this.previewSize));
+                this.previews.put(alias, fingerprint);
+            }
+            return preview;
+        } finally {
+            this.pigLock.unlock();
+        }
+    }
+
+    /**
+     * Registers a statement of the session's own, it doesn't change the last alias.
+     */
+    private void registerInternal(String statement) throws IOException {
+        this.server.registerQuery(statement);
+        invalidate(this.lineage.register(statement));
+    }
+
+    /**
+     * Drops whatever is cached for the aliases and the aliases reading from them.
+     */
+    private void invalidate(Set<String> defined) {
+        Set<String> downstream = this.lineage.getDownstream(defined);
+        this.cursorCache.invalidate(downstream);
+        this.schemas.invalidate(downstream);
+    }
+
+    @Override
+    public Schema getSchema(String alias) throws IOException {
+        this.pigLock.lock();
+        try {
+            return this.schemas.get(this.server, alias);
+        } finally {
+            this.pigLock.unlock();
+        }
+    }
+
+    @Override
+    public AliasCursorCache getCursorCache() {
+        return this.cursorCache;
+    }
+
+    @Override
+    public RelationCache getRelationCache() {
+        return this.relationCache;
+    }
+
+    @Override
+    public StatisticsCache getStatistics() {
+        return this.statistics;
+    }
+
+    @Override
+    public VariableHandles getVariableHandles() {
+        return this.variableHandles;
+    }
+
     @Override
     public void addObserver(IDebugSessionObserver observer) {
         this.observers.add(observer);
@@ -94,73 +296,158 @@ public class DebugSession implements IDebugSession {
     }
 
     @Override
-    public void setBreakpoints(int[] lines) {
-        this.breakpoints.clear();
-        for (int i = 0; i < lines.length; i++) {
-            this.breakpoints.add(lines[i]);
-        }
+    public synchronized void setBreakpoints(String source, int[] lines) {
+        this.breakpoints = this.breakpoints.with(source, lines);
     }
 
     @Override
     public void resume() {
-        this.dataProcessing.releaseLock();
+        this.variableHandles.clear();
+        this.cursorCache.clear();
+        this.statistics.cancelPending();
+        this.dataProcessing.submit(new ExecutionCommand(ExecutionCommand.Kind.CONTINUE));
     }
 
+    /**
+     * Tells whether the statement is the first statement on the line of a
+     * breakpoint.
+     */
+    private boolean hasBreakpoint(StatementIndex.Statement statement) {
+        BreakpointTable table = this.breakpoints;
+        String source = this.fileContext.getFile();
+        for (int line = table.next(source, statement.getStartLine()); line >= 0 && line <= statement.getEndLine();
+                line = table.next(source, line + 1)) {
+            if (this.statements.find(line) == statement) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs the program. The client's commands are queued and applied by this thread
+     * alone, between statements, so they're taken in order and a command that
+     * doesn't apply to the current state is dropped rather than kept for later.
+     * Running on to a breakpoint is split at every STORE, so a command issued
+     * meanwhile is applied before the next job is run.
+     */
     private class DataProcessing extends Thread {
-        private Semaphore semaphore = new Semaphore(1, true);
+        private Queue<ExecutionCommand> commands = new ConcurrentLinkedQueue<>();
+        private volatile ExecutionState state = ExecutionState.RUNNING;
+        private int nextStatement;
+
+        void submit(ExecutionCommand command) {
+            this.commands.add(command);
+            LockSupport.unpark(this);
+        }
 
         @Override
         public void run() {
-            for (;;) {
-                try {
-                    semaphore.acquire();
-                } catch (InterruptedException e) {
-                    break;
+            while (state != ExecutionState.TERMINATED) {
+                ExecutionCommand command = commands.poll();
+                if (command != null) {
+                    apply(command);
+                } else if (state == ExecutionState.STOPPED) {
+                    LockSupport.park(this);
+                    // terminating always comes with a command, an interruption only wakes up.
+                    Thread.interrupted();
+                } else {
+                    runStatements();
                 }
+            }
+        }
 
-                String query;
-                try {
-                    query = fileContext.readLine(currentLine.get());
-                } catch (IOException e) {
-                    DebugSession.this.notify(new Events.TerminatedEvent());
-                    semaphore.release();
+        private void apply(ExecutionCommand command) {
+            switch (command.getKind()) {
+                case CONTINUE:
+                    if (state == ExecutionState.STOPPED) {
+                        transition(ExecutionState.RUNNING, command);
+                    }
+                    break;
+                case STEP:
+                    if (state == ExecutionState.STOPPED) {
+                        transition(ExecutionState.STEPPING, command);
+                    }
+                    break;
+                case PAUSE:
+                    if (state == ExecutionState.RUNNING || state == ExecutionState.STEPPING) {
+                        transition(ExecutionState.STOPPED, command);
+                        DebugSession.this.notify(new Events.StoppedEvent("pause", 1, true));
+                    } else if (state == ExecutionState.STOPPED) {
+                        // the work cancelled was the client's own, it's stopped already.
+                        DebugSession.this.notify(new Events.StoppedEvent("pause", 1, true));
+                    }
                     break;
+                case TERMINATE:
+                    transition(ExecutionState.TERMINATED, command);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        /**
+         * Runs on to the next breakpoint, or a single statement unless running. The
+         * statements between two STOREs are registered in one go. If a command comes
+         * in meanwhile, it stops before the next STORE. A span whose work was cancelled
+         * isn't counted as run, so all of it is registered again on resume.
+         */
+        private void runStatements() {
+            if (nextStatement >= statements.size()) {
+                transition(ExecutionState.TERMINATED, null);
+                DebugSession.this.notify(new Events.TerminatedEvent());
+                return;
+            }
+
+            int stop = nextStatement + 1;
+            if (state == ExecutionState.RUNNING) {
+                while (stop < statements.size() && !hasBreakpoint(statements.get(stop))) {
+                    stop++;
                 }
+            }
 
-                if (AdapterUtils.isQuery(query)) {
-                    try {
-                        server.registerQuery(query);
-                        if (stepAction.get()) {
-                            stepAction.set(false);
-                            currentLine.incrementAndGet();
-                            DebugSession.this.notify(new Events.StoppedEvent("pause", 1, true));
-                            continue;
-                        }
-                    } catch (IOException e) {
-                        DebugSession.this.notify(new Events.OutputEvent(Category.stderr, e.getMessage()));
+            int position = nextStatement;
+            while (position < stop && (position == nextStatement || commands.isEmpty())) {
+                int end = position + 1;
+                if (!statements.get(position).isStore()) {
+                    while (end < stop && !statements.get(end).isStore()) {
+                        end++;
                     }
                 }
-
-                currentLine.incrementAndGet();
-
-                if (breakpoints.contains(currentLine.get())) {
-                    DebugSession.this.notify(new Events.StoppedEvent("breakpoint", 1, true));
-                } else {
-                    semaphore.release();
+                if (!registerStatements(statements.getStatements().subList(position, end))) {
+                    break;
                 }
+                position = end;
             }
-        }
 
-        public void acquireLock() {
-            try {
-                this.semaphore.acquire();
-            } catch (InterruptedException e) {
-                logger.error(e.getMessage());
+            nextStatement = position;
+            StatementIndex.Statement next = nextStatement < statements.size() ? statements.get(nextStatement) : null;
+            currentLine.set(next != null ? next.getStartLine() : statements.getLineCount() + 1);
+
+            if (position < stop) {
+                // stopped early for a command, e.g. a pause that cancelled the work, it's applied next.
+                return;
+            }
+            if (state == ExecutionState.STEPPING) {
+                transition(ExecutionState.STOPPED, null);
+                DebugSession.this.notify(new Events.StoppedEvent("pause", 1, true));
+            } else if (next != null && hasBreakpoint(next)) {
+                transition(ExecutionState.STOPPED, null);
+                DebugSession.this.notify(new Events.StoppedEvent("breakpoint", 1, true));
             }
         }
 
-        public void releaseLock() {
-            this.semaphore.release();
+        /**
+         * @param command the command causing the transition, null if the program
+         *                caused it
+         */
+        private void transition(ExecutionState target, ExecutionCommand command) {
+            ExecutionState source = state;
+            state = target;
+            if (command != null && logger.isDebugEnabled()) {
+                logger.debug(String.format("%s: %s -> %s in %d us", command.getKind(), source, target,
+                        TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - command.getIssuedAt())));
+            }
         }
     }
 
@@ -169,6 +456,11 @@ public class DebugSession implements IDebugSession {
         return this.fileContext;
     }
 
+    @Override
+    public StatementIndex getStatementIndex() {
+        return this.statements;
+    }
+
     @Override
     public int getCurrentLine() {
         return this.currentLine.get();
@@ -176,7 +468,31 @@ public class DebugSession implements IDebugSession {
 
     @Override
     public void next() {
-        this.stepAction.set(true);
-        this.dataProcessing.releaseLock();
+        this.variableHandles.clear();
+        this.cursorCache.clear();
+        this.statistics.cancelPending();
+        this.dataProcessing.submit(new ExecutionCommand(ExecutionCommand.Kind.STEP));
+    }
+
+    /**
+     * Stops the program before the next statement. The Pig work in flight is
+     * cancelled, the thread doing it is interrupted and the jobs it launched are
+     * killed, but what has been registered stays.
+     */
+    @Override
+    public void pause() {
+        this.dataProcessing.submit(new ExecutionCommand(ExecutionCommand.Kind.PAUSE));
+        if (this.pigLock.cancelOwner()) {
+            try {
+                this.server.getPigContext().getExecutionEngine().kill();
+            } catch (IOException e) {
+                logger.warn(e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public ExecutionState getExecutionState() {
+        return this.dataProcessing.state;
     }
 }
@@ -0,0 +1,40 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Microsoft Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Microsoft Corporation - initial API and implementation
+ *******************************************************************************/
+
+package pig.adapter;
+
+/**
+ * A command of the client to the execution of the program, stamped with the time
+ * it was issued so the latency of the transition it causes can be measured.
+ */
+public class ExecutionCommand {
+    public enum Kind {
+        CONTINUE, STEP, PAUSE, TERMINATE
+    }
+
+    private Kind kind;
+    private long issuedAt = System.nanoTime();
+
+    public ExecutionCommand(Kind kind) {
+        this.kind = kind;
+    }
+
+    public Kind getKind() {
+        return this.kind;
+    }
+
+    /**
+     * The time the command was issued, from {@link System#nanoTime()}.
+     */
+    public long getIssuedAt() {
+        return this.issuedAt;
+    }
+}
@@ -0,0 +1,29 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Microsoft Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Microsoft Corporation - initial API and implementation
+ *******************************************************************************/
+
+package pig.adapter;
+
+/**
+ * The states of the execution of the program.
+ *
+ * <pre>
+ * STOPPED    -- continue --&gt; RUNNING
+ * STOPPED    -- step     --&gt; STEPPING
+ * RUNNING    -- pause    --&gt; STOPPED
+ * STEPPING   -- pause    --&gt; STOPPED
+ * RUNNING    -- breakpoint reached --&gt; STOPPED
+ * STEPPING   -- statement run      --&gt; STOPPED
+ * any state  -- terminate or end of the program --&gt; TERMINATED
+ * </pre>
+ */
+public enum ExecutionState {
+    RUNNING, STOPPED, STEPPING, TERMINATED
+}
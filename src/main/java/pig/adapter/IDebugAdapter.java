@@ -14,7 +14,26 @@ package pig.adapter;
 import java.util.concurrent.CompletableFuture;
 
 import com.microsoft.java.debug.core.protocol.Messages;
+import com.microsoft.java.debug.core.protocol.Requests.Command;
 
 public interface IDebugAdapter {
     CompletableFuture<Messages.Response> dispatchRequest(Messages.Request request);
+
+    /**
+     * Indicates that the command doesn't change the execution state of the debug
+     * session, so it can be handled concurrently with other read-only commands.
+     */
+    boolean isReadOnly(Command command);
+
+    /**
+     * Indicates that the command cancels the work of the others, so it's handled as
+     * soon as it's received instead of waiting for the commands before it.
+     */
+    boolean isImmediate(Command command);
+
+    /**
+     * Terminates the debug session, if one was launched, after the client has gone
+     * away without disconnecting.
+     */
+    void close();
 }
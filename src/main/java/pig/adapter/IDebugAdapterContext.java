@@ -21,6 +21,8 @@ import org.apache.pig.PigServer;
 public interface IDebugAdapterContext {
     IProtocolServer getProtocolServer();
 
+    OutputEventPipeline getOutputPipeline();
+
     void setDebugSession(IDebugSession session);
 
     IDebugSession getDebugSession();
@@ -49,6 +51,10 @@ public interface IDebugAdapterContext {
 
     boolean supportsRunInTerminalRequest();
 
+    void setSupportsVariablePaging(boolean supportsVariablePaging);
+
+    boolean supportsVariablePaging();
+
     boolean isAttached();
 
     void setAttached(boolean attached);
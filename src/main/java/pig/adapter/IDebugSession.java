@@ -10,22 +10,124 @@
 *******************************************************************************/
 package pig.adapter;
 
+import java.io.IOException;
+import java.util.concurrent.locks.Lock;
+
 import org.apache.pig.PigServer;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
 
 public interface IDebugSession extends IDebugSessionObservable {
     void start();
 
     void terminate();
 
+    /**
+     * Runs on to the next breakpoint, if the session is stopped.
+     */
     void resume();
 
+    /**
+     * Stops the session at the next statement, cancelling the Pig work in flight.
+     */
+    void pause();
+
+    ExecutionState getExecutionState();
+
     PigServer getPigServer();
 
-    void setBreakpoints(int[] lines);
+    /**
+     * PigServer isn't thread-safe, every access to it has to hold this lock.
+     */
+    Lock getPigLock();
+
+    /**
+     * Registers the query with the Pig server and drops whatever is cached for the
+     * aliases it defines and the aliases reading from them.
+     */
+    void registerQuery(String query) throws IOException;
+
+    /**
+     * The alias defined last by a registered query, the aliases the session defines
+     * for itself aside.
+     */
+    String getLastAlias();
+
+    /**
+     * Returns the schema of the alias, or null if it's unknown. Unlike
+     * PigServer.dumpSchema it prints nothing, and the schema is compiled once per
+     * definition of the alias.
+     *
+     * @throws IOException if the alias is invalid
+     */
+    Schema getSchema(String alias) throws IOException;
+
+    /**
+     * Sets the number of rows the aliases are previewed with, 0 reads them in full.
+     */
+    void setPreviewSize(int previewSize);
+
+    int getPreviewSize();
+
+    /**
+     * Previews the aliases over a sample of their inputs, a fraction outside (0, 1)
+     * turns sampling off.
+     *
+     * @param seed the seed the rows of the inputs are chosen by
+     */
+    void setSampling(double fraction, int seed);
+
+    /**
+     * The fraction of the inputs the aliases are previewed over, 0 if they aren't
+     * sampled.
+     */
+    double getSampleFraction();
+
+    /**
+     * Returns the alias the rows of the alias are read from. In preview mode it's an
+     * internal alias limiting the alias to the preview size, so Pig stops reading the
+     * input once it has enough rows; it's defined again whenever the alias changes.
+     * When sampling, the rows are those of the sampled copy of the alias.
+     */
+    String getPreviewAlias(String alias) throws IOException;
+
+    /**
+     * The cursors over the aliases, it's cleared whenever the session runs on.
+     */
+    AliasCursorCache getCursorCache();
+
+    RelationCache getRelationCache();
+
+    /**
+     * The statistics of the aliases, computed in the background.
+     */
+    StatisticsCache getStatistics();
+
+    /**
+     * The variable references of the current stop, they're released whenever the
+     * session runs on.
+     */
+    VariableHandles getVariableHandles();
+
+    /**
+     * Replaces the breakpoints of the source, they take effect from the next
+     * statement checked on.
+     */
+    void setBreakpoints(String source, int[] lines);
 
     IFileContext getFileContext();
 
+    /**
+     * The statements of the program, the session runs them one at a time.
+     */
+    StatementIndex getStatementIndex();
+
+    /**
+     * The first line of the statement to run next.
+     */
     int getCurrentLine();
 
+    /**
+     * Runs the next statement, if the session is stopped.
+     */
     void next();
 }
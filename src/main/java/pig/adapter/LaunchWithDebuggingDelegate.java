@@ -21,6 +21,8 @@ public class LaunchWithDebuggingDelegate implements ILaunchDelegate {
     @Override
     public void launch(LaunchArguments launchArguments, IDebugAdapterContext context) throws IOException {
         IDebugSession session = new DebugSession(launchArguments.stopOnEntry, launchArguments.program);
+        session.setPreviewSize(launchArguments.previewSize);
+        session.setSampling(launchArguments.sampleFraction, launchArguments.sampleSeed);
         context.setDebugSession(session);
     }
 
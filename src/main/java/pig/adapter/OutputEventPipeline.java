@@ -0,0 +1,189 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Microsoft Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Microsoft Corporation - initial API and implementation
+ *******************************************************************************/
+
+package pig.adapter;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.microsoft.java.debug.core.protocol.Events.OutputEvent;
+import com.microsoft.java.debug.core.protocol.Events.OutputEvent.Category;
+import com.microsoft.java.debug.core.protocol.IProtocolServer;
+
+/**
+ * Sends the debuggee output to the client as bounded {@link OutputEvent}s.
+ *
+ * <p>Output offered within a short window is coalesced into one event, long output
+ * is split into chunks, and the events are rate limited. The output waiting to be
+ * sent is bounded; whatever doesn't fit is dropped and a marker saying the output
+ * was truncated is sent in its place. The marker has no count, since a producer may
+ * stop offering once the output is rejected.
+ */
+public class OutputEventPipeline {
+    static final int MAX_CHUNK_SIZE = 8 * 1024;
+    static final int MAX_PENDING_SIZE = 1024 * 1024;
+    static final long COALESCE_WINDOW_MILLIS = 50;
+    static final int EVENTS_PER_SECOND = 20;
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("output-pipeline").build());
+
+    private IProtocolServer server;
+    private ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private int pendingSize;
+    private boolean drainScheduled;
+    private double tokens = EVENTS_PER_SECOND;
+    private long refilledAt = System.nanoTime();
+
+    public OutputEventPipeline(IProtocolServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Queues the output to be sent with the next event of its category.
+     *
+     * @param category the output category
+     * @param output   the output text
+     * @return false if the output was dropped because the client can't keep up
+     */
+    public synchronized boolean offer(Category category, String output) {
+        if (output == null || output.isEmpty()) {
+            return true;
+        }
+
+        Segment last = this.segments.peekLast();
+        if (this.pendingSize + output.length() > MAX_PENDING_SIZE) {
+            if (last == null || !last.isDropMarker()) {
+                this.segments.add(new Segment(null));
+            }
+            scheduleDrain();
+            return false;
+        }
+
+        if (last == null || last.category != category) {
+            last = new Segment(category);
+            this.segments.add(last);
+        }
+        last.text.append(output);
+        this.pendingSize += output.length();
+        scheduleDrain();
+        return true;
+    }
+
+    /**
+     * Sends all the queued output right away, regardless of the rate limit. It's
+     * called before any other event is sent, so the output isn't reordered with it.
+     */
+    public synchronized void flush() {
+        drain(false);
+    }
+
+    private void scheduleDrain() {
+        if (!this.drainScheduled) {
+            this.drainScheduled = true;
+            SCHEDULER.schedule(() -> {
+                synchronized (this) {
+                    this.drainScheduled = false;
+                    drain(true);
+                }
+            }, COALESCE_WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void drain(boolean rateLimited) {
+        while (!this.segments.isEmpty()) {
+            if (rateLimited && !tryAcquire()) {
+                scheduleDrain();
+                return;
+            }
+
+            Segment segment = this.segments.peekFirst();
+            if (segment.isDropMarker()) {
+                this.segments.pollFirst();
+                send(Category.console, String.format("%n... output truncated%n"));
+                continue;
+            }
+
+            String chunk = segment.take(MAX_CHUNK_SIZE);
+            this.pendingSize -= chunk.length();
+            if (segment.isEmpty()) {
+                this.segments.pollFirst();
+            }
+            send(segment.category, chunk);
+        }
+    }
+
+    private boolean tryAcquire() {
+        long now = System.nanoTime();
+        this.tokens = Math.min(EVENTS_PER_SECOND,
+                this.tokens + (now - this.refilledAt) * EVENTS_PER_SECOND / (double) TimeUnit.SECONDS.toNanos(1));
+        this.refilledAt = now;
+        if (this.tokens < 1) {
+            return false;
+        }
+        this.tokens--;
+        return true;
+    }
+
+    private void send(Category category, String output) {
+        this.server.sendEvent(new OutputEvent(category, output));
+    }
+
+    /**
+     * The output of one category offered in a row, or a drop marker if the
+     * category is null.
+     */
+    private static class Segment {
+        private Category category;
+        private StringBuilder text = new StringBuilder();
+        private int start;
+
+        Segment(Category category) {
+            this.category = category;
+        }
+
+        boolean isDropMarker() {
+            return this.category == null;
+        }
+
+        boolean isEmpty() {
+            return this.start == this.text.length();
+        }
+
+        /**
+         * Takes at most max characters, ending the chunk at a line break if there
+         * is one and never between the two halves of a surrogate pair.
+         */
+        String take(int max) {
+            int end = this.text.length();
+            if (end - this.start > max) {
+                end = this.start + max;
+                int lineEnd = this.text.lastIndexOf("\n", end - 1);
+                if (lineEnd >= this.start) {
+                    end = lineEnd + 1;
+                } else if (Character.isHighSurrogate(this.text.charAt(end - 1))) {
+                    end--;
+                }
+            }
+
+            String chunk = this.text.substring(this.start, end);
+            this.start = end;
+            if (isEmpty()) {
+                this.text.setLength(0);
+                this.start = 0;
+            }
+            return chunk;
+        }
+    }
+}
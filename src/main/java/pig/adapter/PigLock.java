@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Microsoft Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Microsoft Corporation - initial API and implementation
+ *******************************************************************************/
+
+package pig.adapter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The lock of the Pig server, the work of the thread holding it can be cancelled.
+ *
+ * <p>The owner is tracked under the monitor of the lock, and cleared before the
+ * lock is released, so a cancellation only ever interrupts the thread that holds
+ * the lock at that moment.
+ */
+public class PigLock extends ReentrantLock {
+    private static final long serialVersionUID = 1L;
+
+    private transient Thread owner;
+    private transient Thread cancelled;
+
+    @Override
+    public void lock() {
+        super.lock();
+        acquired();
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        super.lockInterruptibly();
+        acquired();
+    }
+
+    @Override
+    public boolean tryLock() {
+        if (super.tryLock()) {
+            acquired();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+        if (super.tryLock(timeout, unit)) {
+            acquired();
+            return true;
+        }
+        return false;
+    }
+
+    private synchronized void acquired() {
+        this.owner = Thread.currentThread();
+    }
+
+    /**
+     * Interrupts the thread holding the lock, so the Pig work it's doing fails with
+     * an interruption. The thread is no longer interrupted once it releases the
+     * lock.
+     *
+     * @return whether there was a thread to interrupt
+     */
+    public synchronized boolean cancelOwner() {
+        if (this.owner == null || this.owner == Thread.currentThread()) {
+            return false;
+        }
+        this.cancelled = this.owner;
+        this.owner.interrupt();
+        return true;
+    }
+
+    /**
+     * Tells whether the work of the current thread has been cancelled since it took
+     * the lock. It's only meaningful while the lock is held.
+     */
+    public synchronized boolean isCancelled() {
+        return this.cancelled == Thread.currentThread();
+    }
+
+    @Override
+    public void unlock() {
+        synchronized (this) {
+            if (getHoldCount() == 1) {
+                this.owner = null;
+                if (this.cancelled == Thread.currentThread()) {
+                    this.cancelled = null;
+                    Thread.interrupted();
+                }
+            }
+        }
+        super.unlock();
+    }
+}
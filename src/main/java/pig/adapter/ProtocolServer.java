@@ -13,30 +13,38 @@ package pig.adapter;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.ByteChannel;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentLinkedQueue;
-
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.microsoft.java.debug.core.protocol.AbstractProtocolServer;
 import com.microsoft.java.debug.core.protocol.Events.DebugEvent;
 import com.microsoft.java.debug.core.protocol.Events.StoppedEvent;
-import com.microsoft.java.debug.core.protocol.JsonUtils;
 import com.microsoft.java.debug.core.protocol.Messages;
-import com.microsoft.java.debug.core.protocol.Messages.Response;
-
-import org.apache.log4j.Logger;
+import com.microsoft.java.debug.core.protocol.Requests.Command;
 
 /**
  * @author Anatolii Bazko
  */
 public class ProtocolServer extends AbstractProtocolServer {
-    private static final Logger logger = Logger.getLogger(ProtocolServer.class.getName());
+    private static final int READ_ONLY_DISPATCHER_THREADS = 4;
 
     private IDebugAdapter debugAdapter;
 
     private Object lock = new Object();
-    private boolean isDispatchingRequest = false;
+    private int dispatchingRequests = 0;
+    private int dispatchingReadOnlyRequests = 0;
     private ConcurrentLinkedQueue<DebugEvent> eventQueue = new ConcurrentLinkedQueue<>();
+    private ThreadPoolExecutor readOnlyDispatcher;
+    private ExecutorService immediateDispatcher;
 
     /**
      * Constructs a protocol server instance based on the given input stream and
@@ -47,14 +55,46 @@ public class ProtocolServer extends AbstractProtocolServer {
      */
     public ProtocolServer(InputStream input, OutputStream output) {
         super(input, output);
+        initialize();
+    }
+
+    /**
+     * Constructs a protocol server instance based on the given channel.
+     *
+     * @param channel the accepted client connection
+     */
+    public ProtocolServer(ByteChannel channel) {
+        super(channel);
+        initialize();
+    }
+
+    private void initialize() {
         debugAdapter = new DebugAdapter(this);
+        readOnlyDispatcher = new ThreadPoolExecutor(READ_ONLY_DISPATCHER_THREADS, READ_ONLY_DISPATCHER_THREADS,
+                60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("read-only-dispatcher-%d").build());
+        readOnlyDispatcher.allowCoreThreadTimeOut(true);
+        immediateDispatcher = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("immediate-dispatcher-%d").build());
     }
 
+    /**
+     * Serves the connection until it's closed, then terminates the debug session, so a
+     * client that drops the connection without a disconnect request doesn't leak it.
+     */
     @Override
-    public void sendEvent(DebugEvent event) {
-        String json = JsonUtils.toJson(event);
-        logger.info("EVENT: " + json);
+    public void run() {
+        try {
+            super.run();
+        } finally {
+            debugAdapter.close();
+            readOnlyDispatcher.shutdownNow();
+            immediateDispatcher.shutdownNow();
+        }
+    }
 
+    @Override
+    public void sendEvent(DebugEvent event) {
         // See the two bugs https://github.com/Microsoft/java-debug/issues/134 and
         // https://github.com/Microsoft/vscode/issues/58327,
         // it requires the java-debug to send the StoppedEvent after
@@ -73,7 +113,7 @@ public class ProtocolServer extends AbstractProtocolServer {
      */
     private void sendEventLater(DebugEvent event) {
         synchronized (lock) {
-            if (this.isDispatchingRequest) {
+            if (this.dispatchingRequests > 0) {
                 this.eventQueue.offer(event);
             } else {
                 super.sendEvent(event);
@@ -81,57 +121,131 @@ public class ProtocolServer extends AbstractProtocolServer {
         }
     }
 
+    /**
+     * Immediate requests, e.g. pause, are handled on their own thread as soon as they
+     * are read, since they cancel the work the requests before them may be stuck in,
+     * including a request waiting for a long read-only request.
+     */
     @Override
-    protected void dispatchRequest(Messages.Request request) {
-        String json = JsonUtils.toJson(request);
-        logger.info("REQUEST: " + json);
+    protected boolean dispatchImmediately(Messages.Request request) {
+        if (!debugAdapter.isImmediate(Command.parse(request.command))) {
+            return false;
+        }
 
+        beginDispatching(false);
         try {
-            synchronized (lock) {
-                this.isDispatchingRequest = true;
-            }
-
-            debugAdapter.dispatchRequest(request).thenCompose((response) -> {
-                CompletableFuture<Void> future = new CompletableFuture<>();
-                if (response != null) {
-                    sendResponse(response);
-                    future.complete(null);
-                } else {
-                    future.completeExceptionally(
-                            new DebugException("The request dispatcher should not return null response.",
-                                    ErrorCode.UNKNOWN_FAILURE.getId()));
-                }
-                return future;
-            }).exceptionally((ex) -> {
-                Messages.Response response = new Messages.Response(request.seq, request.command);
-                if (ex instanceof CompletionException && ex.getCause() != null) {
-                    ex = ex.getCause();
+            immediateDispatcher.execute(() -> {
+                try {
+                    handleRequest(request).join();
+                } finally {
+                    endDispatching(false);
                 }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            endDispatching(false);
+            return false;
+        }
+    }
 
-                String exceptionMessage = ex.getMessage() != null ? ex.getMessage() : ex.toString();
-                ErrorCode errorCode = ex instanceof DebugException
-                        ? ErrorCode.parse(((DebugException) ex).getErrorCode())
-                        : ErrorCode.UNKNOWN_FAILURE;
+    /**
+     * Read-only requests are handled concurrently on a bounded pool. Any other request
+     * waits for the read-only requests received before it and is handled on the
+     * dispatcher thread, so the requests changing the session keep their order.
+     */
+    @Override
+    protected void dispatchRequest(Messages.Request request) {
+        Command command = Command.parse(request.command);
+        if (debugAdapter.isReadOnly(command)) {
+            beginDispatching(true);
+            try {
+                CompletableFuture.runAsync(() -> handleRequest(request).join(), readOnlyDispatcher)
+                        .whenComplete((res, ex) -> endDispatching(true));
+            } catch (RejectedExecutionException e) {
+                try {
+                    handleRequest(request).join();
+                } finally {
+                    endDispatching(true);
+                }
+            }
+            return;
+        }
 
-                sendResponse(AdapterUtils.setErrorResponse(response, errorCode, exceptionMessage));
-                return null;
-            }).join();
+        awaitReadOnlyRequests();
+        beginDispatching(false);
+        try {
+            handleRequest(request).join();
         } finally {
-            synchronized (lock) {
-                this.isDispatchingRequest = false;
+            endDispatching(false);
+        }
+    }
+
+    private CompletableFuture<Void> handleRequest(Messages.Request request) {
+        return debugAdapter.dispatchRequest(request).thenCompose((response) -> {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            if (response != null) {
+                sendResponse(response);
+                future.complete(null);
+            } else {
+                future.completeExceptionally(
+                        new DebugException("The request dispatcher should not return null response.",
+                                ErrorCode.UNKNOWN_FAILURE.getId()));
             }
+            return future;
+        }).exceptionally((ex) -> {
+            Messages.Response response = new Messages.Response(request.seq, request.command);
+            if (ex instanceof CompletionException && ex.getCause() != null) {
+                ex = ex.getCause();
+            }
+
+            String exceptionMessage = ex.getMessage() != null ? ex.getMessage() : ex.toString();
+            ErrorCode errorCode = ex instanceof DebugException
+                    ? ErrorCode.parse(((DebugException) ex).getErrorCode())
+                    : ErrorCode.UNKNOWN_FAILURE;
 
-            while (this.eventQueue.peek() != null) {
-                super.sendEvent(this.eventQueue.poll());
+            sendResponse(AdapterUtils.setErrorResponse(response, errorCode, exceptionMessage));
+            return null;
+        });
+    }
+
+    private void beginDispatching(boolean readOnly) {
+        synchronized (lock) {
+            this.dispatchingRequests++;
+            if (readOnly) {
+                this.dispatchingReadOnlyRequests++;
             }
         }
     }
 
-    @Override
-    public void sendResponse(Response response) {
-        String json = JsonUtils.toJson(response);
-        logger.info("RESPONSE: " + json);
+    /**
+     * Sends the postponed events once no request is being dispatched.
+     */
+    private void endDispatching(boolean readOnly) {
+        synchronized (lock) {
+            this.dispatchingRequests--;
+            if (readOnly) {
+                this.dispatchingReadOnlyRequests--;
+                lock.notifyAll();
+            }
+
+            if (this.dispatchingRequests == 0) {
+                while (this.eventQueue.peek() != null) {
+                    super.sendEvent(this.eventQueue.poll());
+                }
+            }
+        }
+    }
 
-        super.sendResponse(response);
+    private void awaitReadOnlyRequests() {
+        synchronized (lock) {
+            while (this.dispatchingReadOnlyRequests > 0) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
     }
 }
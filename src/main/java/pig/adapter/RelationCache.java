@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Microsoft Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Microsoft Corporation - initial API and implementation
+ *******************************************************************************/
+
+package pig.adapter;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.pig.data.Tuple;
+
+/**
+ * Keeps the rows of the aliases that have been read in full, so an alias isn't run
+ * again while its definition stays the same.
+ *
+ * <p>An entry is found by the alias and the fingerprint of its definition. The
+ * cache holds at most the number of bytes set by the <code>pig.debug.cache.size</code>
+ * system property, 64M by default, and evicts the least recently used entries past
+ * it. The rows still being collected for an alias count against the same budget,
+ * see {@link #reserve(long)}. The rows of a {@link SpilledRelation} aren't on the heap, they count against a
+ * separate disk budget set by the <code>pig.debug.spill.size</code> system property,
+ * 1G by default. A spilled relation is unmapped and its files are deleted once it's
+ * evicted or invalidated.
+ */
+public class RelationCache {
+    public static final String CACHE_SIZE_PROPERTY = "pig.debug.cache.size";
+    public static final String SPILL_SIZE_PROPERTY = "pig.debug.spill.size";
+    private static final long DEFAULT_CACHE_SIZE = 64L * 1024 * 1024;
+    private static final long DEFAULT_SPILL_SIZE = 1024L * 1024 * 1024;
+
+    private long budget;
+    private long size;
+    private long reserved;
+    private long diskBudget;
+    private long diskSize;
+    private Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    private static class Entry {
+        private long fingerprint;
+        private List<Tuple> rows;
+        private long bytes;
+        private long diskBytes;
+
+        Entry(long fingerprint, List<Tuple> rows, long bytes, long diskBytes) {
+            this.fingerprint = fingerprint;
+            this.rows = rows;
+            this.bytes = bytes;
+            this.diskBytes = diskBytes;
+        }
+    }
+
+    public RelationCache() {
+        this(Long.getLong(CACHE_SIZE_PROPERTY, DEFAULT_CACHE_SIZE),
+                Long.getLong(SPILL_SIZE_PROPERTY, DEFAULT_SPILL_SIZE));
+    }
+
+    public RelationCache(long budget, long diskBudget) {
+        this.budget = budget;
+        this.diskBudget = diskBudget;
+    }
+
+    /**
+     * The size of the largest relation worth keeping, a relation taking most of the
+     * budget would only evict everything else.
+     */
+    public long getMaxEntrySize() {
+        return this.budget / 2;
+    }
+
+    /**
+     * The size of the largest spilled relation worth keeping on disk.
+     */
+    public long getMaxSpillSize() {
+        return this.diskBudget / 2;
+    }
+
+    /**
+     * Counts the heap size of rows being collected against the budget, evicting the
+     * least recently used entries to make room for them.
+     *
+     * @return false if the rows don't fit even with nothing else cached, they aren't
+     *         counted then and the caller has to move them off the heap
+     */
+    public synchronized boolean reserve(long bytes) {
+        this.reserved += bytes;
+        evict();
+        if (this.size + this.reserved > this.budget) {
+            this.reserved -= bytes;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stops counting rows that were reserved, once they're cached, spilled or dropped.
+     */
+    public synchronized void unreserve(long bytes) {
+        this.reserved -= bytes;
+    }
+
+    /**
+     * Returns the rows of the alias, or null if they aren't cached for this
+     * definition of the alias.
+     */
+    public synchronized List<Tuple> get(String alias, Long fingerprint) {
+        Entry entry = this.entries.get(alias);
+        if (entry == null || fingerprint == null || entry.fingerprint != fingerprint) {
+            this.misses++;
+            return null;
+        }
+        this.hits++;
+        return entry.rows;
+    }
+
+    /**
+     * Caches the rows of the alias.
+     *
+     * @param bytes the heap size of the rows, a spilled relation counts with the
+     *              size of its files instead
+     */
+    public synchronized void put(String alias, Long fingerprint, List<Tuple> rows, long bytes) {
+        long diskBytes = rows instanceof SpilledRelation ? ((SpilledRelation) rows).getDiskSize() : 0;
+        if (fingerprint == null || bytes > getMaxEntrySize() || diskBytes > getMaxSpillSize()) {
+            release(rows);
+            return;
+        }
+
+        remove(alias);
+        this.entries.put(alias, new Entry(fingerprint, rows, bytes, diskBytes));
+        this.size += bytes;
+        this.diskSize += diskBytes;
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Entry> iterator = this.entries.values().iterator();
+        while ((this.size + this.reserved > this.budget || this.diskSize > this.diskBudget) && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            iterator.remove();
+            this.size -= entry.bytes;
+            this.diskSize -= entry.diskBytes;
+            release(entry.rows);
+            this.evictions++;
+        }
+    }
+
+    public synchronized void invalidate(Collection<String> aliases) {
+        aliases.forEach(this::remove);
+    }
+
+    public synchronized void clear() {
+        this.entries.values().forEach(entry -> release(entry.rows));
+        this.entries.clear();
+        this.size = 0;
+        this.diskSize = 0;
+    }
+
+    private void remove(String alias) {
+        Entry entry = this.entries.remove(alias);
+        if (entry != null) {
+            this.size -= entry.bytes;
+            this.diskSize -= entry.diskBytes;
+            release(entry.rows);
+        }
+    }
+
+    private static void release(List<Tuple> rows) {
+        if (rows instanceof SpilledRelation) {
+            ((SpilledRelation) rows).close();
+        }
+    }
+
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    public synchronized long getEvictions() {
+        return this.evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("relation cache: %d entries, %,d of %,d bytes, %,d bytes reserved, "
+                + "%,d of %,d bytes spilled, %d hits, %d misses, %d evictions", this.entries.size(), this.size,
+                this.budget, this.reserved, this.diskSize, this.diskBudget, this.hits, this.misses, this.evictions);
+    }
+}
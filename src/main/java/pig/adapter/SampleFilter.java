@@ -0,0 +1,48 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Microsoft Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Microsoft Corporation - initial API and implementation
+ *******************************************************************************/
+
+package pig.adapter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import org.apache.pig.FilterFunc;
+import org.apache.pig.data.Tuple;
+
+/**
+ * Keeps a fraction of the rows, chosen by a seeded hash of their content rather than
+ * at random as SAMPLE does, so the same seed always samples the same rows.
+ */
+public class SampleFilter extends FilterFunc {
+    private double fraction;
+    private HashFunction hash;
+
+    /**
+     * @param fraction the fraction of the rows kept, between 0 and 1
+     * @param seed     the seed of the hash the rows are chosen by
+     */
+    public SampleFilter(String fraction, String seed) {
+        this.fraction = Double.parseDouble(fraction);
+        this.hash = Hashing.murmur3_32(Integer.parseInt(seed));
+    }
+
+    @Override
+    public Boolean exec(Tuple input) throws IOException {
+        if (input == null) {
+            return false;
+        }
+        int hashCode = this.hash.hashString(input.toString(), StandardCharsets.UTF_8).asInt();
+        return (hashCode & Integer.MAX_VALUE) < this.fraction * Integer.MAX_VALUE;
+    }
+}
@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Microsoft Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Microsoft Corporation - initial API and implementation
+ *******************************************************************************/
+
+package pig.adapter;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+/**
+ * Keeps the schema of every alias, or the reason it has none, so the plan of an
+ * alias is compiled once per definition of the alias.
+ */
+public class SchemaCache {
+    private AliasLineage lineage;
+    private Map<String, Entry> entries = new HashMap<>();
+
+    private static class Entry {
+        private long fingerprint;
+        private Schema schema;
+        private IOException failure;
+
+        Entry(long fingerprint, Schema schema, IOException failure) {
+            this.fingerprint = fingerprint;
+            this.schema = schema;
+            this.failure = failure;
+        }
+    }
+
+    public SchemaCache(AliasLineage lineage) {
+        this.lineage = lineage;
+    }
+
+    /**
+     * Returns the schema of the alias, or null if it's unknown.
+     *
+     * @throws IOException if the alias is invalid, again on every call until the
+     *                     alias is defined again
+     */
+    public synchronized Schema get(DebugPigServer server, String alias) throws IOException {
+        Long fingerprint = this.lineage.getFingerprint(alias);
+        Entry entry = this.entries.get(alias);
+        if (entry == null || fingerprint == null || entry.fingerprint != fingerprint) {
+            Schema schema = null;
+            IOException failure = null;
+            try {
+                schema = server.getSchema(alias);
+            } catch (IOException e) {
+                failure = e;
+            }
+            if (fingerprint == null) {
+                entry = new Entry(0, schema, failure);
+            } else {
+                entry = new Entry(fingerprint, schema, failure);
+                this.entries.put(alias, entry);
+            }
+        }
+
+        if (entry.failure != null) {
+            throw entry.failure;
+        }
+        return entry.schema;
+    }
+
+    public synchronized void invalidate(Collection<String> aliases) {
+        aliases.forEach(this.entries::remove);
+    }
+
+    public synchronized void clear() {
+        this.entries.clear();
+    }
+}
@@ -0,0 +1,301 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Microsoft Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Microsoft Corporation - initial API and implementation
+ *******************************************************************************/
+
+package pig.adapter;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.io.CountingOutputStream;
+
+import org.apache.log4j.Logger;
+import org.apache.pig.data.BinInterSedes;
+import org.apache.pig.data.Tuple;
+
+/**
+ * The rows of a relation too large to be kept on the heap, written with Pig's
+ * binary tuple format to a temporary file and read back through memory mapping.
+ *
+ * <p>A second file holds the offset of every row, so any row is found without
+ * reading the rows before it, and only the rows being read are on the heap. The
+ * files are unmapped and deleted when the relation is closed, a row can't be read
+ * afterwards.
+ */
+public class SpilledRelation extends AbstractList<Tuple> implements RandomAccess, Closeable {
+    public static final String SPILL_DIR_PROPERTY = "pig.debug.spill.dir";
+    static final int SEGMENT_SIZE = 1 << 30;
+    private static final String FILE_PREFIX = "pig-debug-relation-";
+    private static final long STALE_AGE = TimeUnit.HOURS.toMillis(1);
+
+    private static final Logger logger = Logger.getLogger(SpilledRelation.class.getName());
+    private static final BinInterSedes SEDES = new BinInterSedes();
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Java 8, the buffers are unmapped through their cleaner.
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private Path dataFile;
+    private Path indexFile;
+    private MappedByteBuffer[] data;
+    private MappedByteBuffer[] index;
+    private int size;
+    private long diskSize;
+
+    private SpilledRelation(Path dataFile, Path indexFile, int size) throws IOException {
+        this.dataFile = dataFile;
+        this.indexFile = indexFile;
+        this.data = map(dataFile);
+        this.index = map(indexFile);
+        this.size = size;
+        this.diskSize = Files.size(dataFile) + Files.size(indexFile);
+    }
+
+    /**
+     * Maps the file in segments, a single mapping can't be larger than 2G.
+     */
+    private static MappedByteBuffer[] map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            List<MappedByteBuffer> segments = new ArrayList<>();
+            for (long position = 0; position < length; position += SEGMENT_SIZE) {
+                segments.add(channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(SEGMENT_SIZE, length - position)));
+            }
+            return segments.toArray(new MappedByteBuffer[segments.size()]);
+        }
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * The number of bytes the files take on disk.
+     */
+    public long getDiskSize() {
+        return this.diskSize;
+    }
+
+    /**
+     * Reads a row. It's synchronized with {@link #close()}, so the files are never
+     * unmapped while a row is being read from them.
+     */
+    @Override
+    public synchronized Tuple get(int row) {
+        if (row < 0 || row >= this.size) {
+            throw new IndexOutOfBoundsException(String.format("Row %d of %d.", row, this.size));
+        }
+        if (this.data == null) {
+            throw new IllegalStateException("The spilled relation has been released.");
+        }
+
+        long start = offset(row);
+        byte[] bytes = new byte[(int) (offset(row + 1) - start)];
+        read(start, bytes);
+        try {
+            return (Tuple) SEDES.readDatum(new DataInputStream(new ByteArrayInputStream(bytes)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private long offset(int row) {
+        long position = row * (long) Long.BYTES;
+        // the offsets are aligned, an offset never spans two segments.
+        return this.index[(int) (position / SEGMENT_SIZE)].getLong((int) (position % SEGMENT_SIZE));
+    }
+
+    private void read(long position, byte[] bytes) {
+        int copied = 0;
+        while (copied < bytes.length) {
+            long current = position + copied;
+            ByteBuffer segment = this.data[(int) (current / SEGMENT_SIZE)].duplicate();
+            segment.position((int) (current % SEGMENT_SIZE));
+            int length = Math.min(bytes.length - copied, segment.remaining());
+            segment.get(bytes, copied, length);
+            copied += length;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (this.data == null) {
+            return;
+        }
+        unmap(this.data);
+        unmap(this.index);
+        this.data = null;
+        this.index = null;
+        delete(this.dataFile);
+        delete(this.indexFile);
+    }
+
+    /**
+     * Releases the mappings right away, rather than whenever the buffers are
+     * collected. There is no public API for it, so the JDK internals are called
+     * reflectively: Unsafe.invokeCleaner on Java 9 and later, the buffer's cleaner
+     * on Java 8. If neither works the mappings are left to the GC.
+     */
+    private static void unmap(MappedByteBuffer[] buffers) {
+        for (MappedByteBuffer buffer : buffers) {
+            try {
+                if (INVOKE_CLEANER != null) {
+                    INVOKE_CLEANER.invoke(UNSAFE, buffer);
+                } else {
+                    Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                    cleanerMethod.setAccessible(true);
+                    Object cleaner = cleanerMethod.invoke(buffer);
+                    if (cleaner != null) {
+                        cleaner.getClass().getMethod("clean").invoke(cleaner);
+                    }
+                }
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                logger.debug("Cannot unmap a spilled relation: " + e);
+                return;
+            }
+        }
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // the file is left to deleteStaleFiles.
+            logger.warn(e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes the files of relations left behind in the spill directory, e.g. by a
+     * process that crashed. Only the files that haven't been written to for an hour
+     * are deleted, since another process may still be writing its own.
+     */
+    public static void deleteStaleFiles() {
+        long staleBefore = System.currentTimeMillis() - STALE_AGE;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(getSpillDir(), FILE_PREFIX + "*")) {
+            for (Path file : files) {
+                if (Files.getLastModifiedTime(file).toMillis() < staleBefore) {
+                    delete(file);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Cannot delete stale spilled relations: " + e.getMessage());
+        }
+    }
+
+    static Path getSpillDir() {
+        return Paths.get(System.getProperty(SPILL_DIR_PROPERTY, System.getProperty("java.io.tmpdir")));
+    }
+
+    /**
+     * Writes the rows of a relation, as they're read, to the files of a spilled
+     * relation.
+     */
+    public static class Writer implements Closeable {
+        private Path dataFile;
+        private Path indexFile;
+        private CountingOutputStream counter;
+        private DataOutputStream data;
+        private DataOutputStream index;
+        private int size;
+
+        /**
+         * Creates the files in the directory set by the <code>pig.debug.spill.dir</code>
+         * system property, the temporary directory by default.
+         */
+        public Writer() throws IOException {
+            Path dir = getSpillDir();
+            this.dataFile = Files.createTempFile(dir, FILE_PREFIX, ".data");
+            this.indexFile = Files.createTempFile(dir, FILE_PREFIX, ".index");
+
+            this.counter = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(this.dataFile)));
+            this.data = new DataOutputStream(this.counter);
+            this.index = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(this.indexFile)));
+        }
+
+        /**
+         * The number of bytes written to the files so far.
+         */
+        public long getDiskSize() {
+            return this.counter.getCount() + (this.size + 1L) * Long.BYTES;
+        }
+
+        public void write(Tuple tuple) throws IOException {
+            if (this.size == Integer.MAX_VALUE) {
+                throw new IOException("Too many rows to spill.");
+            }
+            this.index.writeLong(this.counter.getCount());
+            SEDES.writeDatum(this.data, tuple);
+            this.size++;
+        }
+
+        /**
+         * Completes the files and maps them.
+         */
+        public SpilledRelation finish() throws IOException {
+            this.index.writeLong(this.counter.getCount());
+            this.data.close();
+            this.index.close();
+            return new SpilledRelation(this.dataFile, this.indexFile, this.size);
+        }
+
+        /**
+         * Abandons the relation, the files are deleted.
+         */
+        @Override
+        public void close() {
+            try {
+                this.data.close();
+                this.index.close();
+            } catch (IOException e) {
+                logger.warn(e.getMessage());
+            }
+            delete(this.dataFile);
+            delete(this.indexFile);
+        }
+    }
+}
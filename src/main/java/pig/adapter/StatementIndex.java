@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Microsoft Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Microsoft Corporation - initial API and implementation
+ *******************************************************************************/
+
+package pig.adapter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * The statements of a script with the lines they span, parsed once so the script is
+ * run a statement at a time whatever its layout.
+ *
+ * <p>A statement ends at a semicolon outside of quotes, comments and the braces of a
+ * nested FOREACH; preprocessor lines starting with % end at the end of the line.
+ * Comments are left out of the statements.
+ */
+public class StatementIndex {
+    private static final Pattern STORE = Pattern.compile("^store\\b", Pattern.CASE_INSENSITIVE);
+
+    private List<Statement> statements;
+    private int[] statementOfLine;
+
+    public static class Statement {
+        private int index;
+        private int startLine;
+        private int endLine;
+        private String text;
+
+        Statement(int index, int startLine, int endLine, String text) {
+            this.index = index;
+            this.startLine = startLine;
+            this.endLine = endLine;
+            this.text = text;
+        }
+
+        public int getIndex() {
+            return this.index;
+        }
+
+        public int getStartLine() {
+            return this.startLine;
+        }
+
+        public int getEndLine() {
+            return this.endLine;
+        }
+
+        public String getText() {
+            return this.text;
+        }
+
+        /**
+         * Tells whether the statement is a STORE, registering it runs the jobs that
+         * compute the relation.
+         */
+        public boolean isStore() {
+            return STORE.matcher(this.text).find();
+        }
+    }
+
+    private StatementIndex(List<Statement> statements, int lineCount) {
+        this.statements = statements;
+        this.statementOfLine = new int[lineCount + 1];
+        Arrays.fill(this.statementOfLine, -1);
+        for (int i = statements.size() - 1; i >= 0; i--) {
+            // a line shared by several statements belongs to the first of them.
+            Statement statement = statements.get(i);
+            Arrays.fill(this.statementOfLine, statement.startLine, statement.endLine + 1, statement.index);
+        }
+    }
+
+    public List<Statement> getStatements() {
+        return Collections.unmodifiableList(this.statements);
+    }
+
+    public int size() {
+        return this.statements.size();
+    }
+
+    public Statement get(int index) {
+        return this.statements.get(index);
+    }
+
+    public int getLineCount() {
+        return this.statementOfLine.length - 1;
+    }
+
+    /**
+     * Returns the first statement spanning the line, or null if the line is blank,
+     * a comment or out of the script.
+     */
+    public Statement find(int line) {
+        if (line < 1 || line >= this.statementOfLine.length || this.statementOfLine[line] < 0) {
+            return null;
+        }
+        return this.statements.get(this.statementOfLine[line]);
+    }
+
+    public static StatementIndex parse(String script) {
+        String[] lines = script.split("\n", -1);
+        Parser parser = new Parser();
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i].endsWith("\r") ? lines[i].substring(0, lines[i].length() - 1) : lines[i];
+            parser.parseLine(i + 1, line);
+        }
+        parser.finish(lines.length);
+        return new StatementIndex(parser.statements, lines.length);
+    }
+
+    private static class Parser {
+        private List<Statement> statements = new ArrayList<>();
+        private StringBuilder text = new StringBuilder();
+        private int startLine = -1;
+        private int depth;
+        private char quote;
+        private boolean inBlockComment;
+
+        void parseLine(int lineNumber, String line) {
+            if (this.startLine < 0 && !this.inBlockComment && line.trim().startsWith("%")) {
+                add(lineNumber, lineNumber, line.trim());
+                return;
+            }
+
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                char next = i + 1 < line.length() ? line.charAt(i + 1) : 0;
+                if (this.inBlockComment) {
+                    if (c == '*' && next == '/') {
+                        this.inBlockComment = false;
+                        i++;
+                    }
+                    continue;
+                }
+                if (this.quote != 0) {
+                    this.text.append(c);
+                    if (c == '\\' && next != 0) {
+                        this.text.append(next);
+                        i++;
+                    } else if (c == this.quote) {
+                        this.quote = 0;
+                    }
+                    continue;
+                }
+
+                if (c == '-' && next == '-') {
+                    break;
+                } else if (c == '/' && next == '*') {
+                    this.inBlockComment = true;
+                    this.text.append(' ');
+                    i++;
+                    continue;
+                } else if (c == '\'' || c == '`') {
+                    this.quote = c;
+                } else if (c == '{') {
+                    this.depth++;
+                } else if (c == '}') {
+                    this.depth = Math.max(0, this.depth - 1);
+                }
+
+                if (this.startLine < 0 && !Character.isWhitespace(c)) {
+                    this.startLine = lineNumber;
+                }
+                this.text.append(c);
+                if (c == ';' && this.depth == 0) {
+                    add(this.startLine, lineNumber, this.text.toString().trim());
+                }
+            }
+
+            if (this.startLine >= 0) {
+                this.text.append('\n');
+            }
+        }
+
+        /**
+         * Ends a last statement missing its semicolon.
+         */
+        void finish(int lineCount) {
+            String rest = this.text.toString().trim();
+            if (this.startLine >= 0 && !rest.isEmpty()) {
+                add(this.startLine, lineCount, rest);
+            }
+        }
+
+        private void add(int start, int end, String statement) {
+            this.statements.add(new Statement(this.statements.size(), start, end, statement));
+            this.text.setLength(0);
+            this.startLine = -1;
+        }
+    }
+}
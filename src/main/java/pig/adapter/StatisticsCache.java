@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Microsoft Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Microsoft Corporation - initial API and implementation
+ *******************************************************************************/
+
+package pig.adapter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.apache.log4j.Logger;
+import org.apache.pig.PigServer;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+/**
+ * Computes the statistics of the aliases in the background, one alias at a time,
+ * and keeps them for as long as the definition of the alias stays the same. Only
+ * the aliases asked for with {@link #get(String)} are computed, and the Pig lock is
+ * only held while the rows are opened, not while they're read.
+ */
+public class StatisticsCache {
+    /**
+     * The alias of the variable path of the statistics scope, it's not an alias of
+     * the Pig server.
+     */
+    public static final String SCOPE_ALIAS = AdapterUtils.INTERNAL_ALIAS_PREFIX + "statistics";
+
+    private static final Logger logger = Logger.getLogger(StatisticsCache.class.getName());
+
+    private IDebugSession session;
+    private AliasLineage lineage;
+    private ExecutorService executor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("alias-statistics").build());
+    private Map<String, Entry> entries = new HashMap<>();
+
+    private static class Entry {
+        private Long fingerprint;
+        private Future<AliasStatistics> statistics;
+
+        Entry(Long fingerprint, Future<AliasStatistics> statistics) {
+            this.fingerprint = fingerprint;
+            this.statistics = statistics;
+        }
+    }
+
+    public StatisticsCache(IDebugSession session, AliasLineage lineage) {
+        this.session = session;
+        this.lineage = lineage;
+    }
+
+    /**
+     * Returns the statistics of the alias, they're computed if they aren't known
+     * for this definition of the alias yet. The future isn't done until then.
+     */
+    public synchronized Future<AliasStatistics> get(String alias) {
+        Long fingerprint = this.lineage.getFingerprint(alias);
+        Entry entry = this.entries.get(alias);
+        if (entry == null || fingerprint == null || !fingerprint.equals(entry.fingerprint)
+                || isInterrupted(entry.statistics)) {
+            if (entry != null) {
+                entry.statistics.cancel(false);
+            }
+            entry = new Entry(fingerprint, this.executor.submit(() -> compute(alias)));
+            this.entries.put(alias, entry);
+        }
+        return entry.statistics;
+    }
+
+    /**
+     * Returns the statistics of the alias if they're known or being computed for
+     * this definition of the alias, or null. Nothing is computed.
+     */
+    public synchronized Future<AliasStatistics> peek(String alias) {
+        Long fingerprint = this.lineage.getFingerprint(alias);
+        Entry entry = this.entries.get(alias);
+        if (entry == null || fingerprint == null || !fingerprint.equals(entry.fingerprint)
+                || isInterrupted(entry.statistics)) {
+            return null;
+        }
+        return entry.statistics;
+    }
+
+    /**
+     * Cancels the computations that haven't finished, they're started again when
+     * the statistics are asked for the next time.
+     */
+    public synchronized void cancelPending() {
+        this.entries.values().removeIf(entry -> entry.statistics.cancel(true));
+    }
+
+    /**
+     * Tells whether the computation was cancelled by a pause, it's run again.
+     */
+    private static boolean isInterrupted(Future<AliasStatistics> statistics) {
+        if (!statistics.isDone()) {
+            return false;
+        }
+        try {
+            statistics.get();
+            return false;
+        } catch (ExecutionException e) {
+            return e.getCause() instanceof InterruptedIOException;
+        } catch (InterruptedException | CancellationException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Opens the rows under the Pig lock, then reads them without it: the iterator
+     * reads the output of the job that has already run, or the cached rows.
+     */
+    private AliasStatistics compute(String alias) throws IOException {
+        PigServer server = this.session.getPigServer();
+        try {
+            List<String> names = new ArrayList<>();
+            Iterator<Tuple> rows;
+            this.session.getPigLock().lock();
+            try {
+                Schema schema = this.session.getSchema(alias);
+                for (int i = 0; schema != null && i < schema.size(); i++) {
+                    String name = schema.getField(i).alias;
+                    names.add(name != null ? name : "$" + i);
+                }
+                rows = this.session.getCursorCache().iterator(server, alias);
+            } finally {
+                this.session.getPigLock().unlock();
+            }
+
+            AliasStatistics statistics = new AliasStatistics(names);
+            while (rows.hasNext()) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException(String.format("Statistics of %s interrupted.", alias));
+                }
+                statistics.add(rows.next());
+            }
+            return statistics;
+        } catch (IOException | RuntimeException e) {
+            logger.warn(String.format("Cannot compute the statistics of %s: %s", alias, e.getMessage()));
+            throw e;
+        }
+    }
+
+    /**
+     * Stops computing statistics and drops them all.
+     */
+    public synchronized void close() {
+        this.executor.shutdownNow();
+        this.entries.clear();
+    }
+}
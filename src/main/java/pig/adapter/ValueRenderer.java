@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Microsoft Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Microsoft Corporation - initial API and implementation
+ *******************************************************************************/
+
+package pig.adapter;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+
+/**
+ * Renders values the way Pig prints them, but within a budget of characters and
+ * of rows per bag or relation. Rows are pulled from an iterator only until the
+ * budget is spent, and what's left is summarized, so rendering costs no more than
+ * what is shown.
+ */
+public class ValueRenderer {
+    /**
+     * The renderer of the values shown in variables and evaluation results.
+     */
+    public static final ValueRenderer PREVIEW = new ValueRenderer(1024, 10);
+
+    private static final String ELLIPSIS = "\u2026";
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(StringBuilder::new);
+
+    private int maxChars;
+    private int maxRows;
+
+    /**
+     * @param maxChars the number of characters rendered at most, the summary aside
+     * @param maxRows  the number of rows rendered at most, per bag or relation
+     */
+    public ValueRenderer(int maxChars, int maxRows) {
+        this.maxChars = maxChars;
+        this.maxRows = maxRows;
+    }
+
+    public int getMaxRows() {
+        return this.maxRows;
+    }
+
+    /**
+     * Renders a tuple, bag, map or scalar value.
+     */
+    public String render(Object value) {
+        StringBuilder builder = BUFFER.get();
+        try {
+            append(builder, value);
+            return finish(builder);
+        } finally {
+            release(builder);
+        }
+    }
+
+    /**
+     * Renders the rows of a relation, followed by the number of rows left out.
+     *
+     * @param rows  the rows, read only as far as they are rendered
+     * @param total the number of rows, or -1 if it isn't known
+     */
+    public String renderRows(Iterator<Tuple> rows, long total) {
+        StringBuilder builder = BUFFER.get();
+        try {
+            long rendered = 0;
+            while (rendered < this.maxRows && !isFull(builder) && rows.hasNext()) {
+                if (rendered > 0) {
+                    builder.append(", ");
+                }
+                append(builder, rows.next());
+                rendered++;
+            }
+
+            String text = finish(builder);
+            if (total > rendered) {
+                return String.format("%s%s %,d more rows", text, ELLIPSIS, total - rendered);
+            } else if (total < 0 && rows.hasNext()) {
+                return text + ELLIPSIS;
+            }
+            return text;
+        } finally {
+            release(builder);
+        }
+    }
+
+    private void append(StringBuilder builder, Object value) {
+        if (isFull(builder)) {
+            return;
+        }
+
+        if (value instanceof Tuple) {
+            Tuple tuple = (Tuple) value;
+            builder.append('(');
+            for (int i = 0; i < tuple.size() && !isFull(builder); i++) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+                try {
+                    append(builder, tuple.get(i));
+                } catch (ExecException e) {
+                    builder.append('?');
+                }
+            }
+            builder.append(')');
+        } else if (value instanceof DataBag) {
+            DataBag bag = (DataBag) value;
+            builder.append('{');
+            long rendered = 0;
+            for (Iterator<Tuple> iterator = bag.iterator(); iterator.hasNext() && !isFull(builder); rendered++) {
+                if (rendered == this.maxRows) {
+                    builder.append(String.format(",%s %,d more", ELLIPSIS, bag.size() - rendered));
+                    break;
+                }
+                if (rendered > 0) {
+                    builder.append(',');
+                }
+                append(builder, iterator.next());
+            }
+            builder.append('}');
+        } else if (value instanceof Map) {
+            builder.append('[');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (isFull(builder)) {
+                    break;
+                }
+                if (!first) {
+                    builder.append(',');
+                }
+                first = false;
+                builder.append(entry.getKey()).append('#');
+                append(builder, entry.getValue());
+            }
+            builder.append(']');
+        } else if (value != null) {
+            String text = value.toString();
+            builder.append(text, 0, Math.min(text.length(), this.maxChars - builder.length() + 1));
+        }
+    }
+
+    private boolean isFull(StringBuilder builder) {
+        return builder.length() > this.maxChars;
+    }
+
+    private String finish(StringBuilder builder) {
+        if (isFull(builder)) {
+            int length = this.maxChars;
+            if (length > 0 && Character.isHighSurrogate(builder.charAt(length - 1))) {
+                length--;
+            }
+            builder.setLength(length);
+            builder.append(ELLIPSIS);
+        }
+        return builder.toString();
+    }
+
+    private static void release(StringBuilder builder) {
+        builder.setLength(0);
+        if (builder.capacity() > MAX_RETAINED_CAPACITY) {
+            BUFFER.remove();
+        }
+    }
+}
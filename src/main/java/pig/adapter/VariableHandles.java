@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Microsoft Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Microsoft Corporation - initial API and implementation
+ *******************************************************************************/
+
+package pig.adapter;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps the variable references given to the client to the paths of the values they
+ * stand for. A path is an alias, then the index of a row, then the field indexes,
+ * bag element indexes and map keys down to the value. The rows of an alias have a
+ * path of their own, so the alias and the list of its rows get different references.
+ *
+ * <p>Nothing is read when a reference is created, the value is looked up by its
+ * path when the client expands it. The references are valid while the session is
+ * stopped and are all released when it runs on.
+ */
+public class VariableHandles {
+    private int nextId = 1;
+    private Map<Integer, Path> paths = new HashMap<>();
+    private Map<Path, Integer> ids = new HashMap<>();
+
+    /**
+     * Returns the reference of the path, the same path always gets the same
+     * reference until the handles are cleared.
+     */
+    public synchronized int create(Path path) {
+        Integer id = this.ids.get(path);
+        if (id == null) {
+            id = this.nextId++;
+            this.ids.put(path, id);
+            this.paths.put(id, path);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the path of the reference, or null if it has been released.
+     */
+    public synchronized Path get(int id) {
+        return this.paths.get(id);
+    }
+
+    /**
+     * Releases all the references. The ids aren't reused, so a reference the client
+     * still holds can't resolve to another value.
+     */
+    public synchronized void clear() {
+        this.paths.clear();
+        this.ids.clear();
+    }
+
+    public static class Path {
+        private static final String ROWS = "rows";
+
+        private String alias;
+        private Object[] steps;
+
+        public Path(String alias, Object... steps) {
+            this.alias = alias;
+            this.steps = steps;
+        }
+
+        public String getAlias() {
+            return this.alias;
+        }
+
+        /**
+         * The steps after the alias: the row index as a Long, then an Integer for a
+         * tuple field, a Long for a bag element, or a String for a map key. See
+         * {@link #rows()} for the path of the rows.
+         */
+        public Object[] getSteps() {
+            return this.steps;
+        }
+
+        /**
+         * Returns the path of the rows of the alias.
+         */
+        public Path rows() {
+            return new Path(this.alias, ROWS);
+        }
+
+        public boolean isRows() {
+            return this.steps.length == 1 && ROWS.equals(this.steps[0]);
+        }
+
+        public Path child(Object step) {
+            Object[] childSteps = Arrays.copyOf(this.steps, this.steps.length + 1);
+            childSteps[this.steps.length] = step;
+            return new Path(this.alias, childSteps);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Path)) {
+                return false;
+            }
+            Path other = (Path) obj;
+            return this.alias.equals(other.alias) && Arrays.equals(this.steps, other.steps);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.alias.hashCode() + Arrays.hashCode(this.steps);
+        }
+    }
+}
@@ -24,13 +24,13 @@ import com.microsoft.java.debug.core.protocol.Events;
 import com.microsoft.java.debug.core.protocol.Responses;
 
 import org.apache.pig.PigServer;
-import org.apache.pig.data.Tuple;
 
 import pig.adapter.AdapterUtils;
 import pig.adapter.ErrorCode;
 import pig.adapter.IDebugAdapterContext;
 import pig.adapter.IDebugRequestHandler;
 import pig.adapter.IDebugSession;
+import pig.adapter.VariableHandles.Path;
 
 public class EvaluateRequestHandler implements IDebugRequestHandler {
 
@@ -49,6 +49,7 @@ public class EvaluateRequestHandler implements IDebugRequestHandler {
         }
 
         return CompletableFuture.supplyAsync(() -> {
+            session.getPigLock().lock();
             try {
 
                 EvaluateArguments evaluateArgs = (EvaluateArguments) arguments;
@@ -56,24 +57,33 @@ public class EvaluateRequestHandler implements IDebugRequestHandler {
 
                 // evaluate variable
                 if (server.getAliasKeySet().contains(evaluateArgs.expression)) {
-                    response.body = doEvaluate(server, evaluateArgs.expression);
+                    response.body = doEvaluate(session, evaluateArgs.expression);
                     return response;
                 }
 
-                server.registerQuery(evaluateArgs.expression);
-                response.body = doEvaluate(server, server.getLastRel());
+                session.registerQuery(evaluateArgs.expression);
+                response.body = doEvaluate(session, session.getLastAlias());
 
                 return response;
             } catch (IOException e) {
                 throw AdapterUtils.createCompletionException(
                         String.format("Cannot evaluate because of %s.", e.toString()), ErrorCode.EVALUATE_FAILURE);
+            } finally {
+                session.getPigLock().unlock();
             }
         });
     }
 
-    private Object doEvaluate(PigServer server, String alias) throws IOException {
-        List<Tuple> value = AdapterUtils.readValue(server, alias);
-        Object body = new Responses.EvaluateResponseBody(value.toString(), 0, server.dumpSchema(alias).toString(), 0);
+    /**
+     * The alias is returned as a variable whose rows are its indexed children, the
+     * rows are read by the variables request a page at a time.
+     */
+    private Object doEvaluate(IDebugSession session, String alias) throws IOException {
+        PigServer server = session.getPigServer();
+        long rows = session.getCursorCache().count(server, session.getPreviewAlias(alias));
+        int variablesReference = rows > 0 ? session.getVariableHandles().create(new Path(alias).rows()) : 0;
+        Object body = new Responses.EvaluateResponseBody(AdapterUtils.previewRows(session, alias, rows),
+                variablesReference, String.valueOf(session.getSchema(alias)), (int) Math.min(rows, Integer.MAX_VALUE));
         return body;
     }
 }
@@ -45,6 +45,7 @@ public class InitializeRequestHandler implements IDebugRequestHandler {
             }
         }
         context.setSupportsRunInTerminalRequest(initializeArguments.supportsRunInTerminalRequest);
+        context.setSupportsVariablePaging(initializeArguments.supportsVariablePaging);
 
         Types.Capabilities caps = new Types.Capabilities();
         caps.supportsConfigurationDoneRequest = true;
@@ -13,10 +13,12 @@ package pig.adapter.handler;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
-import com.microsoft.java.debug.core.protocol.Events;
+import com.microsoft.java.debug.core.protocol.Events.OutputEvent;
+import com.microsoft.java.debug.core.protocol.Events.OutputEvent.Category;
 import com.microsoft.java.debug.core.protocol.Events.TerminatedEvent;
 import com.microsoft.java.debug.core.protocol.Messages.Response;
 import com.microsoft.java.debug.core.protocol.Requests.Arguments;
@@ -37,9 +39,12 @@ import pig.adapter.IDebugSession;
 import pig.adapter.ILaunchDelegate;
 import pig.adapter.LaunchMode;
 import pig.adapter.LaunchWithDebuggingDelegate;
+import pig.adapter.OutputEventPipeline;
+import pig.adapter.ValueRenderer;
 
 public class LaunchRequestHandler implements IDebugRequestHandler {
     protected static final Logger logger = Logger.getLogger(LaunchRequestHandler.class.getName());
+    private static final ValueRenderer OUTPUT_RENDERER = new ValueRenderer(64 * 1024, 1000);
     protected ILaunchDelegate activeLaunchHandler;
 
     @Override
@@ -72,17 +77,31 @@ public class LaunchRequestHandler implements IDebugRequestHandler {
                 IDebugSession debugSession = context.getDebugSession();
 
                 debugSession.addObserver(event -> {
+                    OutputEventPipeline output = context.getOutputPipeline();
+                    if (event instanceof OutputEvent) {
+                        output.offer(((OutputEvent) event).category, ((OutputEvent) event).output);
+                        return;
+                    }
+
                     if (event instanceof TerminatedEvent) {
                         PigServer server = debugSession.getPigServer();
-                        String alias = server.getLastRel();
+                        debugSession.getPigLock().lock();
                         try {
-                            List<Tuple> value = AdapterUtils.readValue(server, alias);
-                            context.getProtocolServer()
-                                    .sendEvent(Events.OutputEvent.createConsoleOutput(value.toString()));
+                            // Stream the rows until the client can't take more, the rest is marked as truncated.
+                            Iterator<Tuple> rows = debugSession.getCursorCache().iterator(server,
+                                    debugSession.getLastAlias());
+                            while (rows.hasNext()) {
+                                if (!output.offer(Category.console, OUTPUT_RENDERER.render(rows.next()) + "\n")) {
+                                    break;
+                                }
+                            }
                         } catch (IOException e) {
                             logger.error(e.getMessage(), e);
+                        } finally {
+                            debugSession.getPigLock().unlock();
                         }
                     }
+                    output.flush();
                     context.getProtocolServer().sendEvent(event);
                 });
                 activeLaunchHandler.postLaunch(launchArguments, context);
@@ -10,6 +10,7 @@
 *******************************************************************************/
 package pig.adapter.handler;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
@@ -29,6 +30,9 @@ import pig.adapter.ErrorCode;
 import pig.adapter.IDebugAdapterContext;
 import pig.adapter.IDebugRequestHandler;
 import pig.adapter.IDebugSession;
+import pig.adapter.StatisticsCache;
+import pig.adapter.VariableHandles;
+import pig.adapter.VariableHandles.Path;
 
 public class ScopesRequestHandler implements IDebugRequestHandler {
 
@@ -47,14 +51,26 @@ public class ScopesRequestHandler implements IDebugRequestHandler {
         }
 
         PigServer server = session.getPigServer();
-        List<Types.Scope> scopes = server.getAliasKeySet().stream().filter(alias -> {
-            try {
-                server.dumpSchema(alias);
-                return true;
-            } catch (Exception e) {
-                return false;
-            }
-        }).map(alias -> new Scope(alias, alias.hashCode(), true)).collect(Collectors.toList());
+        VariableHandles handles = session.getVariableHandles();
+        List<Types.Scope> scopes;
+        session.getPigLock().lock();
+        try {
+            scopes = server.getAliasKeySet().stream().filter(alias -> {
+                if (AdapterUtils.isInternalAlias(alias)) {
+                    return false;
+                }
+                try {
+                    session.getSchema(alias);
+                    return true;
+                } catch (Exception e) {
+                    return false;
+                }
+            }).map(alias -> new Scope(alias, handles.create(new Path(alias)), true))
+                    .collect(Collectors.toCollection(ArrayList::new));
+            scopes.add(new Scope("Statistics", handles.create(new Path(StatisticsCache.SCOPE_ALIAS)), true));
+        } finally {
+            session.getPigLock().unlock();
+        }
 
         response.body = new Responses.ScopesResponseBody(scopes);
         return CompletableFuture.completedFuture(response);
@@ -15,6 +15,7 @@ import pig.adapter.ErrorCode;
 import pig.adapter.IDebugAdapterContext;
 import pig.adapter.IDebugRequestHandler;
 import pig.adapter.IDebugSession;
+import pig.adapter.StatementIndex.Statement;
 
 import com.microsoft.java.debug.core.protocol.Messages.Response;
 import com.microsoft.java.debug.core.protocol.Requests.Arguments;
@@ -23,7 +24,6 @@ import com.microsoft.java.debug.core.protocol.Requests.SetBreakpointArguments;
 import com.microsoft.java.debug.core.protocol.Responses;
 import com.microsoft.java.debug.core.protocol.Types.Breakpoint;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -49,20 +49,17 @@ public class SetBreakpointsRequestHandler implements IDebugRequestHandler {
         }
 
         SetBreakpointArguments bpArguments = (SetBreakpointArguments) arguments;
-        if (bpArguments.source.path.equals(session.getFileContext().getFile())) {
-             session.setBreakpoints(Arrays.stream(bpArguments.breakpoints).mapToInt(value -> value.line).toArray());
-        }
+        session.setBreakpoints(bpArguments.source.path,
+                Arrays.stream(bpArguments.breakpoints).mapToInt(value -> value.line).toArray());
 
+        // only the program is run, the breakpoints of other sources are never hit.
+        boolean isProgram = bpArguments.source.path.equals(session.getFileContext().getFile());
         List<Breakpoint> breakpoints = new ArrayList<>();
         for (int i = 0; i < bpArguments.lines.length; i++) {
-            boolean verified;
-            try {
-                String line = session.getFileContext().readLine(bpArguments.lines[i]);
-                verified = AdapterUtils.isQuery(line);
-            } catch (IOException e) {
-                verified = false;
-            }
-            breakpoints.add(new Breakpoint(bpArguments.lines[i], verified, bpArguments.lines[i], ""));
+            // a breakpoint within a statement stops before the statement.
+            Statement statement = isProgram ? session.getStatementIndex().find(bpArguments.lines[i]) : null;
+            int line = statement != null ? statement.getStartLine() : bpArguments.lines[i];
+            breakpoints.add(new Breakpoint(bpArguments.lines[i], statement != null, line, ""));
         }
 
         response.body = new Responses.SetBreakpointsResponseBody(breakpoints);
@@ -53,6 +53,8 @@ public class ThreadsRequestHandler implements IDebugRequestHandler {
             session.resume();
             return CompletableFuture.completedFuture(response);
         case PAUSE:
+            session.pause();
+            return CompletableFuture.completedFuture(response);
         default:
             return AdapterUtils.createAsyncErrorResponse(response, ErrorCode.UNRECOGNIZED_REQUEST_FAILURE,
                     String.format("Unrecognized request: { _request: %s }", command.toString()));
@@ -11,12 +11,16 @@
 package pig.adapter.handler;
 
 import pig.adapter.AdapterUtils;
+import pig.adapter.AliasStatistics;
 import pig.adapter.ErrorCode;
 import pig.adapter.IDebugAdapterContext;
 import pig.adapter.IDebugRequestHandler;
 import pig.adapter.IDebugSession;
+import pig.adapter.StatisticsCache;
+import pig.adapter.ValueRenderer;
+import pig.adapter.VariableHandles;
+import pig.adapter.VariableHandles.Path;
 
-import com.google.common.collect.Lists;
 import com.microsoft.java.debug.core.protocol.Messages.Response;
 import com.microsoft.java.debug.core.protocol.Requests.Arguments;
 import com.microsoft.java.debug.core.protocol.Requests.Command;
@@ -25,19 +29,52 @@ import com.microsoft.java.debug.core.protocol.Responses;
 import com.microsoft.java.debug.core.protocol.Types;
 
 import org.apache.pig.PigServer;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.logicalLayer.FrontendException;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+import org.apache.pig.impl.logicalLayer.schema.Schema.FieldSchema;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 public class VariablesRequestHandler implements IDebugRequestHandler {
+    /**
+     * The number of rows returned when the client asks for the rows without paging.
+     */
+    private static final int MAX_UNPAGED_ROWS = 1000;
+    private static final String COMPUTING = "computing\u2026";
+    private static final String NOT_COMPUTED = "expand to compute";
 
     @Override
     public List<Command> getTargetCommands() {
         return Arrays.asList(Command.VARIABLES);
     }
 
+    /**
+     * The alias of a scope is returned as a single variable, its reference lists
+     * the rows as indexed children. The rows are read only for the window requested
+     * with the indexed filter, so a large relation is never loaded as a whole.
+     * Clients without variable paging get the first rows of the alias right away.
+     * In preview mode only the rows of the preview are read.
+     *
+     * <p>Tuples, bags and maps are expandable, their children are read only when
+     * they're expanded.
+     *
+     * <p>The statistics scope lists the aliases with their number of rows, and their
+     * fields once expanded. The statistics of an alias are computed in the background
+     * when it's expanded, it shows as being computed until they're known.
+     */
     @Override
     public CompletableFuture<Response> handle(Command command, Arguments arguments, Response response,
             IDebugAdapterContext context) {
@@ -50,19 +87,231 @@ public class VariablesRequestHandler implements IDebugRequestHandler {
         }
 
         PigServer server = session.getPigServer();
-        server.getAliasKeySet().forEach(s -> {
-            if (s.hashCode() == varArgs.variablesReference) {
-                try {
-                    String schema = server.dumpSchema(s).toString();
-                    String value = AdapterUtils.readValue(server, s).toString();
-                    Types.Variable var = new Types.Variable(s, value, schema, 0, s);
-                    response.body = new Responses.VariablesResponseBody(Lists.newArrayList(var));
-                } catch (IOException e) {
+        VariableHandles handles = session.getVariableHandles();
+        List<Types.Variable> variables = new ArrayList<>();
+        session.getPigLock().lock();
+        try {
+            Path path = handles.get(varArgs.variablesReference);
+            if (path != null && StatisticsCache.SCOPE_ALIAS.equals(path.getAlias())) {
+                addStatistics(variables, session, path);
+            } else if (path != null && path.isRows()) {
+                if (!"named".equals(varArgs.filter)) {
+                    addRows(variables, session, path.getAlias(), varArgs);
                 }
+            } else if (path != null && path.getSteps().length > 0) {
+                Resolved resolved = resolve(session, path, session.getSchema(path.getAlias()));
+                addChildren(variables, handles, path, resolved.value, resolved.schema, varArgs);
+            } else if (path != null && !context.supportsVariablePaging()) {
+                addRows(variables, session, path.getAlias(), varArgs);
+            } else if (path != null) {
+                String alias = path.getAlias();
+                String schema = String.valueOf(session.getSchema(alias));
+                long rows = session.getCursorCache().count(server, session.getPreviewAlias(alias));
+                Types.Variable var = new Types.Variable(alias, AdapterUtils.previewRows(session, alias, rows), schema,
+                        rows > 0 ? handles.create(path.rows()) : 0, alias);
+                var.indexedVariables = (int) Math.min(rows, Integer.MAX_VALUE);
+                variables.add(var);
             }
-        });
-
+        } catch (IOException e) {
+            throw AdapterUtils.createCompletionException(
+                    String.format("Cannot read the variables because of %s.", e.toString()),
+                    ErrorCode.EVALUATE_FAILURE, e);
+        } finally {
+            session.getPigLock().unlock();
+        }
 
+        response.body = new Responses.VariablesResponseBody(variables);
         return CompletableFuture.completedFuture(response);
     }
+
+    private static void addRows(List<Types.Variable> variables, IDebugSession session, String alias,
+            VariablesArguments varArgs) throws IOException {
+        Schema schema = session.getSchema(alias);
+        int count = varArgs.count > 0 ? varArgs.count : MAX_UNPAGED_ROWS;
+        List<Tuple> rows = session.getCursorCache().read(session.getPigServer(), session.getPreviewAlias(alias),
+                varArgs.start, count);
+        for (int i = 0; i < rows.size(); i++) {
+            long index = (long) varArgs.start + i;
+            variables.add(toVariable(session.getVariableHandles(), new Path(alias, index),
+                    String.format("[%d]", index), rows.get(i), schema));
+        }
+    }
+
+    /**
+     * Lists the aliases without computing anything, the statistics of an alias are
+     * only computed once it's expanded.
+     */
+    private static void addStatistics(List<Types.Variable> variables, IDebugSession session, Path path) {
+        VariableHandles handles = session.getVariableHandles();
+        if (path.getSteps().length == 0) {
+            for (String alias : session.getPigServer().getAliasKeySet()) {
+                if (AdapterUtils.isInternalAlias(alias)) {
+                    continue;
+                }
+                Future<AliasStatistics> future = session.getStatistics().peek(alias);
+                AliasStatistics statistics = future == null ? null : getDone(future);
+                variables.add(new Types.Variable(alias, describe(future, statistics), null,
+                        statistics != null && statistics.getFields().isEmpty() ? 0 : handles.create(path.child(alias)),
+                        null));
+            }
+        } else {
+            Future<AliasStatistics> future = session.getStatistics().get((String) path.getSteps()[0]);
+            AliasStatistics statistics = getDone(future);
+            if (statistics != null) {
+                for (AliasStatistics.FieldStatistics field : statistics.getFields()) {
+                    variables.add(new Types.Variable(field.getName(), field.toString(), null, 0, null));
+                }
+            } else {
+                variables.add(new Types.Variable("rows", describe(future, null), null, 0, null));
+            }
+        }
+    }
+
+    private static String describe(Future<AliasStatistics> future, AliasStatistics statistics) {
+        if (statistics != null) {
+            return String.format("%,d rows", statistics.getRows());
+        } else if (future == null) {
+            return NOT_COMPUTED;
+        }
+        return future.isDone() ? "unavailable" : COMPUTING;
+    }
+
+    /**
+     * Returns the statistics, or null if they're still being computed or couldn't
+     * be.
+     */
+    private static AliasStatistics getDone(Future<AliasStatistics> statistics) {
+        if (!statistics.isDone()) {
+            return null;
+        }
+        try {
+            return statistics.get();
+        } catch (ExecutionException | InterruptedException | CancellationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A value and the schema of its fields, null if it's unknown.
+     */
+    private static class Resolved {
+        private Object value;
+        private Schema schema;
+    }
+
+    /**
+     * Reads the row of the path and walks down to the value, along with its schema
+     * starting from the schema of the alias.
+     */
+    private static Resolved resolve(IDebugSession session, Path path, Schema aliasSchema) throws IOException {
+        Object[] steps = path.getSteps();
+        List<Tuple> rows = session.getCursorCache().read(session.getPigServer(),
+                session.getPreviewAlias(path.getAlias()), (Long) steps[0], 1);
+
+        Resolved resolved = new Resolved();
+        resolved.value = rows.isEmpty() ? null : rows.get(0);
+        resolved.schema = aliasSchema;
+        for (int i = 1; i < steps.length && resolved.value != null; i++) {
+            Object value = resolved.value;
+            if (value instanceof Tuple) {
+                FieldSchema field = getField(resolved.schema, (Integer) steps[i]);
+                resolved.schema = field == null ? null : field.schema;
+                resolved.value = ((Tuple) value).get((Integer) steps[i]);
+            } else if (value instanceof DataBag) {
+                resolved.schema = getElementSchema(resolved.schema);
+                resolved.value = getElement((DataBag) value, (Long) steps[i]);
+            } else if (value instanceof Map) {
+                resolved.schema = null;
+                resolved.value = ((Map<?, ?>) value).get(steps[i]);
+            } else {
+                resolved.value = null;
+            }
+        }
+        return resolved;
+    }
+
+    private static void addChildren(List<Types.Variable> variables, VariableHandles handles, Path path,
+            Object value, Schema schema, VariablesArguments varArgs) throws ExecException {
+        if (value instanceof Tuple) {
+            Tuple tuple = (Tuple) value;
+            for (int i = 0; i < tuple.size(); i++) {
+                FieldSchema field = getField(schema, i);
+                String name = field != null && field.alias != null ? field.alias : "$" + i;
+                variables.add(toVariable(handles, path.child(i), name, tuple.get(i),
+                        field == null ? null : field.schema));
+            }
+        } else if (value instanceof DataBag) {
+            Schema elementSchema = getElementSchema(schema);
+            int count = varArgs.count > 0 ? varArgs.count : MAX_UNPAGED_ROWS;
+            Iterator<Tuple> iterator = ((DataBag) value).iterator();
+            for (long i = 0; i < varArgs.start + count && iterator.hasNext(); i++) {
+                Tuple element = iterator.next();
+                if (i >= varArgs.start) {
+                    variables.add(toVariable(handles, path.child(i), String.format("[%d]", i), element,
+                            elementSchema));
+                }
+            }
+        } else if (value instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                String key = String.valueOf(entry.getKey());
+                variables.add(toVariable(handles, path.child(key), key, entry.getValue(), null));
+            }
+        }
+    }
+
+    /**
+     * Creates the variable of a value, it gets a reference only if it has
+     * children.
+     *
+     * @param schema the schema of the value's fields, or null if it's unknown
+     */
+    private static Types.Variable toVariable(VariableHandles handles, Path path, String name, Object value,
+            Schema schema) {
+        int size;
+        if (value instanceof DataBag) {
+            size = (int) Math.min(((DataBag) value).size(), Integer.MAX_VALUE);
+        } else if (value instanceof Map) {
+            size = ((Map<?, ?>) value).size();
+        } else if (value instanceof Tuple) {
+            size = ((Tuple) value).size();
+        } else {
+            size = 0;
+        }
+
+        Types.Variable var = new Types.Variable(name, ValueRenderer.PREVIEW.render(value), DataType.findTypeName(value),
+                size > 0 ? handles.create(path) : 0, null);
+        if (value instanceof DataBag) {
+            var.indexedVariables = size;
+        } else {
+            var.namedVariables = size;
+        }
+        return var;
+    }
+
+    private static FieldSchema getField(Schema schema, int index) {
+        try {
+            return schema == null || index >= schema.size() ? null : schema.getField(index);
+        } catch (FrontendException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The schema of a bag holds a single tuple, the schema of the elements.
+     */
+    private static Schema getElementSchema(Schema bagSchema) {
+        FieldSchema field = getField(bagSchema, 0);
+        if (field != null && bagSchema.size() == 1 && field.type == DataType.TUPLE) {
+            return field.schema;
+        }
+        return bagSchema;
+    }
+
+    private static Tuple getElement(DataBag bag, long index) {
+        Iterator<Tuple> iterator = bag.iterator();
+        for (long i = 0; i < index && iterator.hasNext(); i++) {
+            iterator.next();
+        }
+        return iterator.hasNext() ? iterator.next() : null;
+    }
 }
@@ -0,0 +1,312 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Microsoft Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Microsoft Corporation - initial API and implementation
+ *******************************************************************************/
+
+package com.microsoft.java.debug.core.protocol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.microsoft.java.debug.core.protocol.Requests.EvaluateArguments;
+
+public class AbstractProtocolServerTest {
+    private static final String THREADS = "{\"seq\":1,\"type\":\"request\",\"command\":\"threads\"}";
+    private static final String EVALUATE = "{\"seq\":2,\"type\":\"request\",\"command\":\"evaluate\","
+            + "\"arguments\":{\"expression\":\"gr\u00fc\u00dfe \u20ac\"}}";
+
+    @Test
+    public void testMultipleFramesInOneRead() throws Exception {
+        List<Messages.Request> requests = serve(2, frame(THREADS) + frame(EVALUATE));
+
+        assertEquals(2, requests.size());
+        assertEquals("threads", requests.get(0).command);
+        assertEquals("evaluate", requests.get(1).command);
+    }
+
+    @Test
+    public void testHeaderSplitAtEveryByte() throws Exception {
+        byte[] data = bytes(frame(THREADS) + frame(EVALUATE));
+        for (int split = 1; split < data.length; split++) {
+            List<Messages.Request> requests = serve(2, Arrays.copyOfRange(data, 0, split),
+                    Arrays.copyOfRange(data, split, data.length));
+
+            assertEquals("split at " + split, 2, requests.size());
+            assertEquals("split at " + split, 1, requests.get(0).seq);
+            assertEquals("split at " + split, 2, requests.get(1).seq);
+        }
+    }
+
+    @Test
+    public void testByteAtATime() throws Exception {
+        byte[] data = bytes(frame(EVALUATE));
+        byte[][] chunks = new byte[data.length][];
+        for (int i = 0; i < data.length; i++) {
+            chunks[i] = new byte[] { data[i] };
+        }
+
+        List<Messages.Request> requests = serve(1, chunks);
+
+        assertEquals(1, requests.size());
+        assertEquals("gr\u00fc\u00dfe \u20ac", ((EvaluateArguments) requests.get(0).typedArguments).expression);
+    }
+
+    @Test
+    public void testContentLengthCountsBytes() throws Exception {
+        List<Messages.Request> requests = serve(2, frame(EVALUATE) + frame(THREADS));
+
+        assertEquals(2, requests.size());
+        assertEquals("gr\u00fc\u00dfe \u20ac", ((EvaluateArguments) requests.get(0).typedArguments).expression);
+        assertEquals("threads", requests.get(1).command);
+    }
+
+    @Test
+    public void testHeaderFieldsAndCase() throws Exception {
+        String header = "Content-Type: application/vscode-jsonrpc; charset=utf-8\r\n"
+                + "content-length:  " + bytes(THREADS).length + "\r\n\r\n";
+
+        List<Messages.Request> requests = serve(1, header + THREADS);
+
+        assertEquals(1, requests.size());
+        assertEquals("threads", requests.get(0).command);
+    }
+
+    @Test
+    public void testMissingContentLength() throws Exception {
+        List<Messages.Request> requests = serve(1, "Content-Type: application/json\r\n\r\n" + frame(THREADS));
+
+        assertEquals(1, requests.size());
+        assertEquals("threads", requests.get(0).command);
+    }
+
+    @Test
+    public void testInvalidContentLength() throws Exception {
+        List<Messages.Request> requests = serve(1, "Content-Length: 99999999999\r\n\r\n" + frame(THREADS));
+
+        assertEquals(1, requests.size());
+        assertEquals("threads", requests.get(0).command);
+    }
+
+    @Test
+    public void testIncompleteFrame() throws Exception {
+        String frame = frame(THREADS);
+
+        List<Messages.Request> requests = serve(1, frame(EVALUATE) + frame.substring(0, frame.length() - 1));
+
+        assertEquals(1, requests.size());
+        assertEquals("evaluate", requests.get(0).command);
+    }
+
+    @Test
+    public void testResponsesAreNumberedInWriteOrder() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        RecordingServer server = new RecordingServer(new ChunkedInputStream(), output);
+        for (int i = 0; i < 3; i++) {
+            server.sendResponse(new Messages.Response(i, "threads"));
+        }
+        server.run();
+
+        String written = new String(output.toByteArray(), StandardCharsets.UTF_8);
+        String[] frames = written.split("Content-Length: \\d+\r\n\r\n");
+        assertEquals(4, frames.length);
+        for (int i = 0; i < 3; i++) {
+            Messages.Response response = (Messages.Response) MessageDecoder.decode(frames[i + 1]);
+            assertEquals(i, response.request_seq);
+            assertEquals(i + 1, response.seq);
+        }
+    }
+
+    @Test
+    public void testBoundedAllocationPerMessage() throws Exception {
+        byte[] frame = bytes(frame(EVALUATE));
+        int count = 8 * 1024 * 1024 / frame.length;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        // Warms up the decoding, so loading its classes isn't counted.
+        serve(1, frame);
+
+        FrameInputStream input = new FrameInputStream(count, frame);
+        RecordingServer server = new RecordingServer(input, new ByteArrayOutputStream());
+        input.server = server;
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        server.run();
+        allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+
+        int received = 0;
+        while (server.requests.poll(5, TimeUnit.SECONDS) != null && ++received < count) {
+            // drains the requests dispatched on the other thread
+        }
+        assertEquals(count, received);
+        assertTrue("buffer capacity " + input.maxCapacity, input.maxCapacity <= 2 * 4096);
+        // Decoding takes a few KB, mostly the JSON reader's buffer, copying the backlog would take MBs.
+        assertTrue("allocated " + allocated / count + " bytes per message", allocated / count < 16 * 1024);
+    }
+
+    @Test
+    public void testBufferShrinksAfterLargeMessage() throws Exception {
+        char[] expression = new char[1024 * 1024];
+        Arrays.fill(expression, 'a');
+        String large = "{\"seq\":1,\"type\":\"request\",\"command\":\"evaluate\","
+                + "\"arguments\":{\"expression\":\"" + new String(expression) + "\"}}";
+        FrameInputStream input = new FrameInputStream(1, bytes(frame(large)), bytes(frame(THREADS)));
+        RecordingServer server = new RecordingServer(input, new ByteArrayOutputStream());
+        input.server = server;
+        server.run();
+
+        assertEquals("evaluate", server.requests.poll(5, TimeUnit.SECONDS).command);
+        assertEquals("threads", server.requests.poll(5, TimeUnit.SECONDS).command);
+        assertTrue("buffer capacity " + input.maxCapacity, input.maxCapacity > expression.length);
+        assertTrue("buffer capacity " + capacity(server), capacity(server) <= 4096);
+    }
+
+    private static int capacity(AbstractProtocolServer server) {
+        try {
+            Field rawData = AbstractProtocolServer.class.getDeclaredField("rawData");
+            rawData.setAccessible(true);
+            return ((AbstractProtocolServer.ByteBuffer) rawData.get(server)).capacity();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String frame(String json) {
+        return "Content-Length: " + bytes(json).length + "\r\n\r\n" + json;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<Messages.Request> serve(int expected, String data) throws InterruptedException {
+        return serve(expected, bytes(data));
+    }
+
+    /**
+     * Runs a server over the chunks, every read returns exactly one of them, and
+     * collects the requests it dispatches. Requests are dispatched on another
+     * thread, so it waits for the expected ones and takes whatever else is there.
+     */
+    private static List<Messages.Request> serve(int expected, byte[]... chunks) throws InterruptedException {
+        RecordingServer server = new RecordingServer(new ChunkedInputStream(chunks), new ByteArrayOutputStream());
+        server.run();
+
+        List<Messages.Request> requests = new ArrayList<>();
+        Messages.Request request;
+        while ((request = requests.size() < expected ? server.requests.poll(5, TimeUnit.SECONDS)
+                : server.requests.poll()) != null) {
+            requests.add(request);
+        }
+        return requests;
+    }
+
+    private static class RecordingServer extends AbstractProtocolServer {
+        private BlockingQueue<Messages.Request> requests = new LinkedBlockingQueue<>();
+
+        RecordingServer(InputStream input, ByteArrayOutputStream output) {
+            super(input, output);
+        }
+
+        @Override
+        protected void dispatchRequest(Messages.Request request) {
+            this.requests.add(request);
+        }
+    }
+
+    /**
+     * Streams the frames back to back, filling every read, and records the largest
+     * capacity of the server's input buffer between two reads.
+     */
+    private static class FrameInputStream extends InputStream {
+        private AbstractProtocolServer server;
+        private int maxCapacity;
+        private byte[][] frames;
+        private int remaining;
+        private int frame;
+        private int offset;
+
+        /**
+         * @param count the times the last frame is repeated
+         */
+        FrameInputStream(int count, byte[]... frames) {
+            this.frames = frames;
+            this.remaining = frames.length - 1 + count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            this.maxCapacity = Math.max(this.maxCapacity, capacity(this.server));
+            if (this.remaining == 0) {
+                return -1;
+            }
+
+            int read = 0;
+            while (read < len && this.remaining > 0) {
+                byte[] current = this.frames[this.frame];
+                int length = Math.min(len - read, current.length - this.offset);
+                System.arraycopy(current, this.offset, b, off + read, length);
+                read += length;
+                this.offset += length;
+                if (this.offset == current.length) {
+                    this.offset = 0;
+                    this.remaining--;
+                    this.frame = Math.min(this.frame + 1, this.frames.length - 1);
+                }
+            }
+            return read;
+        }
+    }
+
+    private static class ChunkedInputStream extends InputStream {
+        private byte[][] chunks;
+        private int next;
+
+        ChunkedInputStream(byte[]... chunks) {
+            this.chunks = chunks;
+        }
+
+        @Override
+        public int read() throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (this.next == this.chunks.length) {
+                return -1;
+            }
+
+            byte[] chunk = this.chunks[this.next++];
+            if (chunk.length > len) {
+                throw new IllegalStateException("The chunk doesn't fit into a single read.");
+            }
+            System.arraycopy(chunk, 0, b, off, chunk.length);
+            return chunk.length;
+        }
+    }
+}
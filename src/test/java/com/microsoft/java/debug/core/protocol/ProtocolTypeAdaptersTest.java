@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Microsoft Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Microsoft Corporation - initial API and implementation
+ *******************************************************************************/
+
+package com.microsoft.java.debug.core.protocol;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.microsoft.java.debug.core.protocol.Events.OutputEvent;
+import com.microsoft.java.debug.core.protocol.Events.StoppedEvent;
+
+/**
+ * The hand-written serializers must produce exactly what Gson's reflective adapter
+ * produces for the same value.
+ */
+public class ProtocolTypeAdaptersTest {
+    private static final Gson REFLECTIVE = new Gson();
+
+    @Test
+    public void testEvents() {
+        assertSameJson(new Messages.Event("stopped", new StoppedEvent("breakpoint", 1, true)));
+        assertSameJson(new Messages.Event("stopped", new StoppedEvent("pause", 1)));
+        assertSameJson(new Messages.Event("output", new OutputEvent(OutputEvent.Category.stderr, "a \"b\"\n\u20ac")));
+        assertSameJson(new Messages.Event("output", new OutputEvent(OutputEvent.Category.console, "line",
+                new Types.Source("script.pig", "/tmp/script.pig", 0), 12)));
+        assertSameJson(new Messages.Event("output", new OutputEvent(null, null)));
+        assertSameJson(new Messages.Event("terminated", null));
+    }
+
+    @Test
+    public void testResponses() {
+        Messages.Response response = new Messages.Response(3, "threads", true);
+        response.seq = 7;
+        response.body = new Responses.ThreadsResponseBody(Arrays.asList(new Types.Thread(1, "main")));
+        assertSameJson(response);
+
+        assertSameJson(new Messages.Response(4, "next"));
+        assertSameJson(new Messages.Response(false, "failed"));
+
+        Messages.Response error = new Messages.Response(5, "evaluate", false);
+        error.body = new Responses.ErrorResponseBody(new Types.Message(1001, "Unable to parse {0}"));
+        assertSameJson(error);
+        assertSameJson(new Responses.ErrorResponseBody(null));
+    }
+
+    @Test
+    public void testBodies() {
+        assertSameJson(new Responses.StackTraceResponseBody(Arrays.asList(
+                new Types.StackFrame(1, "main", new Types.Source("script.pig", "/tmp/script.pig", 0), 3, 1),
+                new Types.StackFrame(2, "other", null, 0, 0)), 2));
+        assertSameJson(new Responses.ScopesResponseBody(Arrays.asList(new Types.Scope("Aliases", 1, false),
+                new Types.Scope("Statistics", 2, true))));
+        assertSameJson(new Responses.VariablesResponseBody(Arrays.asList(
+                new Types.Variable("A", "{(1,a)}", "bag", 3, "A"),
+                new Types.Variable("f", null, null, 0, null))));
+        assertSameJson(new Responses.VariablesResponseBody(Collections.emptyList()));
+        assertSameJson(new Responses.ThreadsResponseBody(Collections.emptyList()));
+        assertSameJson(new Responses.EvaluateResponseBody("(1,a)", 4, "tuple", 10));
+        assertSameJson(new Responses.EvaluateResponseBody(null, 0, null, 0));
+        assertSameJson(new Responses.SetBreakpointsResponseBody(Arrays.asList(
+                new Types.Breakpoint(1, true, 4, null), new Types.Breakpoint(2, false, 9, "no statement"))));
+    }
+
+    @Test
+    public void testNullElements() {
+        assertSameJson(new Responses.StackTraceResponseBody(Arrays.asList(
+                new Types.StackFrame(1, "main", null, 3, 1), null), 2));
+        assertSameJson(new Responses.ScopesResponseBody(Arrays.asList(null, new Types.Scope("Aliases", 1, false))));
+        assertSameJson(new Responses.VariablesResponseBody(Arrays.asList(new Types.Variable("f", null, null, 0, null),
+                null)));
+        assertSameJson(new Responses.ThreadsResponseBody(Arrays.asList((Types.Thread) null)));
+        assertSameJson(new Responses.SetBreakpointsResponseBody(Arrays.asList(null,
+                new Types.Breakpoint(1, true, 4, null))));
+    }
+
+    @Test
+    public void testVariableCounts() {
+        Types.Variable variable = new Types.Variable("A", "3 rows", "bag", 5, "A");
+        variable.indexedVariables = 3;
+        variable.namedVariables = 1;
+        assertSameJson(variable);
+    }
+
+    private static void assertSameJson(Object value) {
+        assertEquals(REFLECTIVE.toJson(value), JsonUtils.toJson(value));
+    }
+}